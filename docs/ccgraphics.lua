@@ -88,6 +88,171 @@ function FrameBuffer.drawBuffer(x, y, buffer2, xOff, yOff, w, h) end
 ---@see GraphicsAPI.tableToFrameBuffer To create a FrameBuffer from a table
 function FrameBuffer.drawBufferMasked(x, y, buffer2, xOff, yOff, w, h) end
 
+--- Narrow the clip rectangle used by the clipped draw methods, saving the current one.
+--- <br>
+--- The new clip is the part of the rectangle inside the current clip. The clip starts as the whole frame buffer.
+--- <br/><br/>
+--- <b>Throws:</b> If the clip stack is already 64 deep
+---@param x number X position of the rectangle
+---@param y number Y position of the rectangle
+---@param w number Width of the rectangle
+---@param h number Height of the rectangle
+function FrameBuffer.pushClip(x, y, w, h) end
+
+--- Restore the clip rectangle from before the last `pushClip`
+---@return boolean popped If there was a clip rectangle to restore
+function FrameBuffer.popClip() end
+
+--- Get the current clip rectangle
+---@return integer x
+---@return integer y
+---@return integer w
+---@return integer h
+function FrameBuffer.getClip() end
+
+--- Draw a box outline, skipping any part outside the clip rectangle
+---@param x number X position of the box
+---@param y number Y position of the box
+---@param w number Width of the box
+---@param h number Height of the box
+---@param color integer Color of the box in ARGB8
+function FrameBuffer.drawBoxClipped(x, y, w, h, color) end
+
+--- Draw a filled box, skipping any part outside the clip rectangle
+---@param x number X position of the box
+---@param y number Y position of the box
+---@param w number Width of the box
+---@param h number Height of the box
+---@param color integer Color of the box in ARGB8
+function FrameBuffer.drawBoxFilledClipped(x, y, w, h, color) end
+
+--- Draw a line between 2 points, skipping any part outside the clip rectangle
+---@param x1 number X position of point 1
+---@param y1 number Y position of point 1
+---@param x2 number X position of point 2
+---@param y2 number Y position of point 2
+---@param color integer Color of the line in ARGB8
+function FrameBuffer.drawLineClipped(x1, y1, x2, y2, color) end
+
+--- Draw another buffer onto this buffer, skipping any part outside the clip rectangle or `buffer2`
+--- <br/><br/>
+--- <b>Throws:</b> If the provided buffer could not be turned into a FrameBuffer
+---@param x number X position on **THIS** buffer to start drawing
+---@param y number Y position on **THIS** buffer to start drawing
+---@param buffer2 FrameBuffer|table Buffer to draw. (Can be table representation of a frame buffer)
+---@param xOff? number *Optional.* X position on `buffer2` to start drawing from. Defaults to `0`
+---@param yOff? number *Optional.* Y position on `buffer2` to start drawing from. Defaults to `0`
+---@param w? number *Optional.* Width of `buffer2` to draw from `xOff`. Defaults to `buffer2.getWidth() - xOff`
+---@param h? number *Optional.* Height of `buffer2` to draw from `xOff`. Defaults to `buffer2.getHeight() - yOff`
+function FrameBuffer.drawBufferClipped(x, y, buffer2, xOff, yOff, w, h) end
+
+--- Draw another buffer onto this buffer masking by alpha, skipping any part outside the clip rectangle or `buffer2`
+--- <br/><br/>
+--- <b>Throws:</b> If the provided buffer could not be turned into a FrameBuffer
+---@param x number X position on **THIS** buffer to start drawing
+---@param y number Y position on **THIS** buffer to start drawing
+---@param buffer2 FrameBuffer|table Buffer to draw. (Can be table representation of a frame buffer)
+---@param xOff? number *Optional.* X position on `buffer2` to start drawing from. Defaults to `0`
+---@param yOff? number *Optional.* Y position on `buffer2` to start drawing from. Defaults to `0`
+---@param w? number *Optional.* Width of `buffer2` to draw from `xOff`. Defaults to `buffer2.getWidth() - xOff`
+---@param h? number *Optional.* Height of `buffer2` to draw from `xOff`. Defaults to `buffer2.getHeight() - yOff`
+function FrameBuffer.drawBufferMaskedClipped(x, y, buffer2, xOff, yOff, w, h) end
+
+--- Blend another buffer onto this buffer, skipping any part outside the clip rectangle or `buffer2`
+--- <br/><br/>
+--- <b>Throws:</b> If the mode or opacity is invalid OR the provided buffer could not be turned into a FrameBuffer
+---@param x number X position on **THIS** buffer to start drawing
+---@param y number Y position on **THIS** buffer to start drawing
+---@param buffer2 FrameBuffer|table Buffer to draw. (Can be table representation of a frame buffer)
+---@param mode? "over"|"add"|"multiply" *Optional.* How to combine the pixels. Defaults to `"over"`
+---@param opacity? integer *Optional.* Opacity of the whole buffer, multiplied with each pixel's alpha. 0-255. Defaults to `255`
+---@param xOff? number *Optional.* X position on `buffer2` to start drawing from. Defaults to `0`
+---@param yOff? number *Optional.* Y position on `buffer2` to start drawing from. Defaults to `0`
+---@param w? number *Optional.* Width of `buffer2` to draw from `xOff`. Defaults to `buffer2.getWidth() - xOff`
+---@param h? number *Optional.* Height of `buffer2` to draw from `xOff`. Defaults to `buffer2.getHeight() - yOff`
+function FrameBuffer.drawBufferBlended(x, y, buffer2, mode, opacity, xOff, yOff, w, h) end
+
+--- Draw a circle outline, skipping any part outside the clip rectangle
+--- <br/><br/>
+--- <b>Throws:</b> If the radius is not between 0 and 16384
+---@param cx number X position of the center
+---@param cy number Y position of the center
+---@param r number Radius of the circle
+---@param color integer Color of the circle in ARGB8
+function FrameBuffer.drawCircle(cx, cy, r, color) end
+
+--- Draw a filled circle, skipping any part outside the clip rectangle
+--- <br/><br/>
+--- <b>Throws:</b> If the radius is not between 0 and 16384
+---@param cx number X position of the center
+---@param cy number Y position of the center
+---@param r number Radius of the circle
+---@param color integer Color of the circle in ARGB8
+function FrameBuffer.drawCircleFilled(cx, cy, r, color) end
+
+--- Draw an ellipse outline, skipping any part outside the clip rectangle
+--- <br/><br/>
+--- <b>Throws:</b> If either radius is not between 0 and 16384
+---@param cx number X position of the center
+---@param cy number Y position of the center
+---@param rx number Horizontal radius
+---@param ry number Vertical radius
+---@param color integer Color of the ellipse in ARGB8
+function FrameBuffer.drawEllipse(cx, cy, rx, ry, color) end
+
+--- Draw a filled ellipse, skipping any part outside the clip rectangle
+--- <br/><br/>
+--- <b>Throws:</b> If either radius is not between 0 and 16384
+---@param cx number X position of the center
+---@param cy number Y position of the center
+---@param rx number Horizontal radius
+---@param ry number Vertical radius
+---@param color integer Color of the ellipse in ARGB8
+function FrameBuffer.drawEllipseFilled(cx, cy, rx, ry, color) end
+
+--- Draw a triangle outline, skipping any part outside the clip rectangle
+---@param x1 number
+---@param y1 number
+---@param x2 number
+---@param y2 number
+---@param x3 number
+---@param y3 number
+---@param color integer Color of the triangle in ARGB8
+function FrameBuffer.drawTriangle(x1, y1, x2, y2, x3, y3, color) end
+
+--- Draw a filled triangle, skipping any part outside the clip rectangle
+---@param x1 number
+---@param y1 number
+---@param x2 number
+---@param y2 number
+---@param x3 number
+---@param y3 number
+---@param color integer Color of the triangle in ARGB8
+function FrameBuffer.drawTriangleFilled(x1, y1, x2, y2, x3, y3, color) end
+
+--- Draw a closed polygon outline, skipping any part outside the clip rectangle
+--- <br/><br/>
+--- <b>Throws:</b> If `points` is not a list of numbers
+---@param points number[] Corners as a flat list `{x1, y1, x2, y2, ...}`
+---@param color integer Color of the polygon in ARGB8
+function FrameBuffer.drawPolygon(points, color) end
+
+--- Draw a filled polygon, skipping any part outside the clip rectangle. Self-intersecting polygons are filled by the even-odd rule
+--- <br/><br/>
+--- <b>Throws:</b> If `points` is not a list of numbers
+---@param points number[] Corners as a flat list `{x1, y1, x2, y2, ...}`
+---@param color integer Color of the polygon in ARGB8
+function FrameBuffer.drawPolygonFilled(points, color) end
+
+--- Run a batch of draw commands in one call. Each command is an opcode from `graphics.commands` followed by its arguments.
+--- <br>
+--- Every command skips anything outside the clip rectangle instead of throwing.
+--- <br/><br/>
+--- <b>Throws:</b> If a command was unknown or missing arguments
+---@param commands number[]|string List of opcodes and arguments, or a big-endian binary string of them
+---@return integer count Number of commands run
+function FrameBuffer.drawCommands(commands) end
+
 --- Gets the width of the frame buffer
 ---@return integer width Width of the frame buffer
 function FrameBuffer.getWidth() end
@@ -200,6 +365,10 @@ function GraphicsNativeAPI.loadFBBString(image) end
 ---@class GraphicsAPI Graphics api. Loadable with `require('graphics')`
 local GraphicsAPI = {}
 
+--- Opcodes for `FrameBuffer.drawCommands`
+---@type { PIXEL: integer, LINE: integer, BOX: integer, BOX_FILLED: integer, CIRCLE: integer, CIRCLE_FILLED: integer, ELLIPSE: integer, ELLIPSE_FILLED: integer, TRIANGLE: integer, TRIANGLE_FILLED: integer, POINTS: integer }
+GraphicsAPI.commands = {}
+
 --- Make a new FrameBuffer of the provided size
 ---@param width integer Width of the new frame buffer
 ---@param height integer Height of the new frame buffer
@@ -316,6 +485,29 @@ function FontRenderer.rasterize(text, color) end
 ---@return integer height Height of the rasterized text
 function FontRenderer.getTextSize(text) end
 
+---@class SwapChain
+local SwapChain = {}
+
+--- Get the frame buffer to draw the next frame into. Returns the same frame buffer until it is presented.
+--- <br><br>
+--- The frame buffer may have been used before, and keeps whatever was last drawn into it.
+---@return FrameBuffer frameBuffer
+function SwapChain.acquire() end
+
+--- Display the acquired frame buffer without copying it. The frame buffer must not be used after this.
+--- <br><br>
+--- <b>Throws:</b> If no frame buffer has been acquired, or the display is no longer the size of the chain
+---@return number|false|nil result Nothing for a screen, the same as `setFrameBuffer` for a monitor
+function SwapChain.present() end
+
+--- Get the width of the frames
+---@return integer width
+function SwapChain.getWidth() end
+
+--- Get the height of the frames
+---@return integer height
+function SwapChain.getHeight() end
+
 ---@class GraphicsMonitorPeripheral
 ---Extends [`redirect`](https://tweaked.cc/module/term.html#ty:Redirect)
 local GraphicsMonitorPeripheral = {}
@@ -326,6 +518,12 @@ local GraphicsMonitorPeripheral = {}
 ---@return FrameBuffer frameBuffer
 function GraphicsMonitorPeripheral.getNewFrameBuffer() end
 
+--- Get a swap chain that is the size of the monitor, to draw frames into without allocating or copying them.
+--- <br><br>
+--- Mode independent.
+---@return SwapChain chain
+function GraphicsMonitorPeripheral.getSwapChain() end
+
 --- Set the current frame buffer for the monitor.
 --- <br>
 --- Function is limited to 5 times per-second per-peripheral.
@@ -401,4 +599,8 @@ function ScreenAPI.getHeight() end
 
 --- Get a new frame buffer the size of this screen
 ---@return FrameBuffer frameBuffer
-function ScreenAPI.getFrameBuffer() end
\ No newline at end of file
+function ScreenAPI.getFrameBuffer() end
+
+--- Get a swap chain the size of this screen, to draw frames into without allocating or copying them
+---@return SwapChain chain
+function ScreenAPI.getSwapChain() end
\ No newline at end of file
@@ -1,9 +1,13 @@
 package com.peter.ccgraphics;
 
 import com.peter.ccgraphics.computer.GraphicsComputerMenu;
+import com.peter.ccgraphics.monitor.ClientGraphicsMonitor;
 import com.peter.ccgraphics.monitor.GraphicsMonitorBlockEntity;
+import com.peter.ccgraphics.networking.ComputerFrameDeltaPacket;
 import com.peter.ccgraphics.networking.ComputerFramePacket;
 import com.peter.ccgraphics.networking.FrambufferPacket;
+import com.peter.ccgraphics.networking.FrameDeltaPacket;
+import com.peter.ccgraphics.networking.FrameRequestPacket;
 import com.peter.ccgraphics.rendering.GraphicsMonitorBlockEntityRenderer;
 import com.peter.ccgraphics.rendering.gui.GraphicsComputerScreen;
 
@@ -27,7 +31,25 @@ public class CCGraphicsClient implements ClientModInitializer {
             context.client().execute(() -> {
                 GraphicsMonitorBlockEntity entity = (GraphicsMonitorBlockEntity) context.client().world
                         .getBlockEntity(payload.pos());
-                entity.getOriginClientMonitor().updateFrame(payload.frame());
+                // The integrated server hands over its packet, which still holds the encoding it was sent with. The
+                // frame in it belongs to the server, so is decoded into the monitor's own frame instead
+                if (payload.encoded() != null)
+                    entity.getOriginClientMonitor().updateFrame(payload.encoded(), payload.version());
+                else
+                    entity.getOriginClientMonitor().updateFrame(payload.frame(), payload.version());
+            });
+        });
+
+        ClientPlayNetworking.registerGlobalReceiver(FrameDeltaPacket.ID, (payload, context) -> {
+            context.client().execute(() -> {
+                if (!(context.client().world.getBlockEntity(payload.pos()) instanceof GraphicsMonitorBlockEntity entity))
+                    return;
+                ClientGraphicsMonitor monitor = entity.getOriginClientMonitor();
+                // Deltas that arrive while a full frame is on its way are stale, so are dropped without asking again
+                if (!monitor.applyDelta(payload.delta(), payload.baseVersion(), payload.version())
+                        && monitor.requestKeyframe()) {
+                    ClientPlayNetworking.send(new FrameRequestPacket(payload.pos()));
+                }
             });
         });
 
@@ -38,12 +60,27 @@ public class CCGraphicsClient implements ClientModInitializer {
                     ScreenHandler var5 = player.currentScreenHandler;
                     if (var5 instanceof GraphicsComputerMenu) {
                         GraphicsComputerMenu menu = (GraphicsComputerMenu) var5;
-                        menu.setFrame(payload.frame());
+                        // A packet handed over by the integrated server holds a frame that still belongs to it
+                        if (payload.encoded() != null)
+                            menu.setFrame(payload.encoded());
+                        else
+                            menu.setFrame(payload.frame());
                     }
                 }
             });
         });
 
+        ClientPlayNetworking.registerGlobalReceiver(ComputerFrameDeltaPacket.ID, (payload, context) -> {
+            context.client().execute(() -> {
+                PlayerEntity player = context.client().player;
+                // Menus are always sent a full frame before any deltas, and another whenever the size changes
+                if (player != null && player.currentScreenHandler.syncId == payload.syncId()
+                        && player.currentScreenHandler instanceof GraphicsComputerMenu menu) {
+                    menu.applyDelta(payload.delta());
+                }
+            });
+        });
+
         HandledScreens.register(GraphicsComputerMenu.TYPE, GraphicsComputerScreen::new);
     }
 }
\ No newline at end of file
@@ -1,10 +1,16 @@
 package com.peter.ccgraphics.rendering;
 
+import java.nio.IntBuffer;
+
+import org.lwjgl.system.MemoryUtil;
+
 import com.mojang.blaze3d.opengl.GlStateManager;
+import com.mojang.blaze3d.systems.CommandEncoder;
 import com.mojang.blaze3d.systems.RenderSystem;
 import com.mojang.blaze3d.textures.GpuTexture;
 import com.mojang.blaze3d.textures.GpuTextureView;
 import com.peter.ccgraphics.CCGraphics;
+import com.peter.ccgraphics.data.DamageTracker;
 import com.peter.ccgraphics.lua.FrameBuffer;
 
 import net.minecraft.client.texture.NativeImage;
@@ -20,6 +26,9 @@ public class ScreenTexture implements AutoCloseable {
     protected NativeImageBackedTexture niTexture;
     protected NativeImage nativeImage;
 
+    /** Frame last written to the texture, used to decide if damage regions can be trusted */
+    protected FrameBuffer lastFrame = null;
+
     public ScreenTexture(int width, int height) {
         this.width = width;
         this.height = height;
@@ -32,22 +41,56 @@ public class ScreenTexture implements AutoCloseable {
         GlStateManager._bindTexture(glId);
     }
 
+    /**
+     * Update the texture from a frame.<br/>
+     * <br/>
+     * If the frame tracks damage and was the last frame set, only the damaged regions are written and uploaded.
+     * Otherwise the whole frame is uploaded.
+     * @param frame Frame to display
+     */
     public void setFrame(FrameBuffer frame) {
         if (frame.getWidth() != width || frame.getHeight() != height) {
             resize(frame.getWidth(), frame.getHeight());
         }
+        boolean created = niTexture == null;
         check();
-        for (int x = 0; x < frame.getWidth(); x++) {
-            for (int y = 0; y < frame.getHeight(); y++) {
-                int p = frame.getPixel(x, y);
-                int r = (p & 0x00_ff_00_00) >> 16;
-                int g = (p & 0x00_00_ff_00) >> 8;
-                int b = (p & 0x00_00_00_ff);
-                nativeImage.setColor(x, y, 0xff00_0000 | (b << 16) | (g << 8) | r);
+        DamageTracker damage = frame.getDamage();
+        if (created || damage == null || frame != lastFrame) {
+            writePixels(frame, 0, 0, width, height);
+            niTexture.upload();
+            if (damage != null)
+                damage.clear();
+        } else if (damage.isDamaged()) {
+            CommandEncoder encoder = RenderSystem.getDevice().createCommandEncoder();
+            for (DamageTracker.Rect rect : damage.poll()) {
+                writePixels(frame, rect.x(), rect.y(), rect.width(), rect.height());
+                encoder.writeToTexture(niTexture.getGlTexture(), nativeImage, 0, 0, rect.x(), rect.y(),
+                        rect.width(), rect.height(), rect.x(), rect.y());
             }
         }
-        if(niTexture != null)
-            niTexture.upload();
+        lastFrame = frame;
+    }
+
+    /**
+     * Copy a region of the frame into the native image, converting ARGB to ABGR.<br/>
+     * <br/>
+     * Each row is bulk read from the frame, converted in place, and bulk written to the image memory.
+     */
+    private void writePixels(FrameBuffer frame, int x0, int y0, int w, int h) {
+        IntBuffer image = MemoryUtil.memIntBuffer(nativeImage.imageId(), width * height);
+        int[] row = new int[w];
+        for (int y = y0; y < y0 + h; y++) {
+            int index = x0 + y * width;
+            frame.readPixels(index, row, 0, w);
+            for (int x = 0; x < w; x++) {
+                row[x] = argbToAbgr(row[x]);
+            }
+            image.put(index, row, 0, w);
+        }
+    }
+
+    private static int argbToAbgr(int p) {
+        return 0xff00_0000 | ((p & 0x00_00_00_ff) << 16) | (p & 0x00_00_ff_00) | ((p >> 16) & 0xff);
     }
 
     private static int nextTId = 0;
@@ -68,6 +111,7 @@ public class ScreenTexture implements AutoCloseable {
             nativeImage.close();
         niTexture = null;
         nativeImage = null;
+        lastFrame = null;
     }
 
     public int getId() {
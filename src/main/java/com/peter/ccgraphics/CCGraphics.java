@@ -20,8 +20,11 @@ import com.peter.ccgraphics.lua.ScreenAPI;
 import com.peter.ccgraphics.lua.GraphicsNativeAPI;
 import com.peter.ccgraphics.monitor.GraphicsMonitorBlock;
 import com.peter.ccgraphics.monitor.GraphicsMonitorBlockEntity;
+import com.peter.ccgraphics.networking.ComputerFrameDeltaPacket;
 import com.peter.ccgraphics.networking.ComputerFramePacket;
 import com.peter.ccgraphics.networking.FrambufferPacket;
+import com.peter.ccgraphics.networking.FrameDeltaPacket;
+import com.peter.ccgraphics.networking.FrameRequestPacket;
 import com.peter.ccgraphics.pocket.PocketGraphicsComputerItem;
 
 import dan200.computercraft.api.ComputerCraftAPI;
@@ -54,7 +57,10 @@ public class CCGraphics implements ModInitializer {
         ComputerCraftAPI.registerAPIFactory(ScreenAPI::create);
 
         FrambufferPacket.register();
+        FrameDeltaPacket.register();
+        FrameRequestPacket.register();
         ComputerFramePacket.register();
+        ComputerFrameDeltaPacket.register();
 
         ResourceManagerHelper.get(ResourceType.SERVER_DATA).registerReloadListener(new FontLoader());
 
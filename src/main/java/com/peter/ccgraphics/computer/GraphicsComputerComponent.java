@@ -1,17 +1,16 @@
 package com.peter.ccgraphics.computer;
 
-import java.util.concurrent.atomic.AtomicBoolean;
-
 import com.peter.ccgraphics.CCGraphics;
+import com.peter.ccgraphics.data.FrameMailbox;
+import com.peter.ccgraphics.lua.ArrayFrameBuffer;
 import com.peter.ccgraphics.lua.FrameBuffer;
+import com.peter.ccgraphics.lua.SwapChain;
 
 import dan200.computercraft.api.component.ComputerComponent;
 
 public class GraphicsComputerComponent {
 
-    protected AtomicBoolean changed = new AtomicBoolean(false);
-
-    protected FrameBuffer frameBuffer;
+    protected final FrameMailbox frames = new FrameMailbox();
 
     protected ServerGraphicsComputer computer;
 
@@ -27,23 +26,41 @@ public class GraphicsComputerComponent {
         this.height = height;
     }
 
-    public synchronized void setFrameBuffer(FrameBuffer frame) {
+    /**
+     * Publish a frame to be displayed. A snapshot is taken, so the caller may keep modifying the frame
+     * @param frame Frame to display
+     */
+    public void setFrameBuffer(FrameBuffer frame) {
         if (frame == null) {
             throw new IllegalArgumentException("`frame` must be non-null");
         }
-        this.frameBuffer = frame;
-        changed.set(true);
+        frames.publish(frame);
     }
 
-    protected synchronized boolean pollChanged() {
-        return changed.getAndSet(false);
+    /**
+     * Publish a frame from a swap chain to be displayed, without copying it
+     * @param frame Frame to display. Must not be modified afterwards
+     * @param chain Chain the frame came from
+     */
+    public void presentFrameBuffer(ArrayFrameBuffer frame, SwapChain chain) {
+        frames.present(frame, chain);
     }
 
-    public synchronized FrameBuffer getFrameBuffer() {
-        if (this.frameBuffer == null) {
-            throw new IllegalStateException("frameBuffer was never set before tying to get it");
-        }
-        return this.frameBuffer;
+    /**
+     * Take the newest frame set since the last call
+     * @return Newest frame, or <code>null</code> if no frame has been set since
+     */
+    protected FrameBuffer takeFrameBuffer() {
+        return frames.take();
+    }
+
+    /**
+     * Give back a frame from {@link #takeFrameBuffer()} once nothing needs its pixels, so it can be reused
+     * @param frame Frame to give back. Frames that did not come from this component are ignored
+     * @see FrameMailbox#recycle
+     */
+    protected void recycleFrameBuffer(FrameBuffer frame) {
+        frames.recycle(frame);
     }
 
     public boolean isTerm() {
@@ -1,8 +1,11 @@
 package com.peter.ccgraphics.computer;
 
+import java.io.IOException;
 import java.util.function.Predicate;
 
 import com.peter.ccgraphics.CCGraphics;
+import com.peter.ccgraphics.data.FrameBufferBinary;
+import com.peter.ccgraphics.data.FrameBufferDelta;
 import com.peter.ccgraphics.lua.ArrayFrameBuffer;
 import com.peter.ccgraphics.lua.FrameBuffer;
 
@@ -10,6 +13,7 @@ import dan200.computercraft.shared.computer.inventory.AbstractComputerMenu;
 import dan200.computercraft.shared.computer.inventory.ComputerMenuWithoutInventory;
 import dan200.computercraft.shared.network.container.ComputerContainerData;
 import dan200.computercraft.shared.network.container.ContainerData;
+import io.netty.buffer.ByteBuf;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.entity.player.PlayerInventory;
 import net.minecraft.registry.Registries;
@@ -30,6 +34,9 @@ public class GraphicsComputerMenu extends ComputerMenuWithoutInventory {
         CCGraphics.LOGGER.info("Initialized Graphics Computer Menu");
     };
 
+    /** Computer this menu is receiving frames from. Only set on the server */
+    private ServerGraphicsComputer listening;
+
     protected FrameBuffer frame = new ArrayFrameBuffer(GraphicsComputerBlockEntity.SCREEN_WIDTH, GraphicsComputerBlockEntity.SCREEN_HEIGHT);
 
     public GraphicsComputerMenu(ScreenHandlerType<? extends AbstractComputerMenu> type, int id, PlayerInventory player,
@@ -40,7 +47,15 @@ public class GraphicsComputerMenu extends ComputerMenuWithoutInventory {
     public GraphicsComputerMenu(ScreenHandlerType<? extends AbstractComputerMenu> type, int id, PlayerInventory player,
             Predicate<PlayerEntity> canUse, ServerGraphicsComputer computer) {
         super(type, id, player, canUse, computer);
-        computer.addListener((ServerPlayerEntity) player.player);
+        listening = computer;
+        computer.addListener((ServerPlayerEntity) player.player, this);
+    }
+
+    @Override
+    public void onClosed(PlayerEntity player) {
+        super.onClosed(player);
+        if (listening != null)
+            listening.removeListener(this);
     }
 
     @Override
@@ -65,9 +80,37 @@ public class GraphicsComputerMenu extends ComputerMenuWithoutInventory {
     }
 
     public void setFrame(FrameBuffer frame) {
+        // The screen re-uploads on every render unless it can tell the frame is unchanged
+        if (frame != null)
+            frame.setDamageTracking(true);
         this.frame = frame;
     }
 
+    /**
+     * Set the frame from its encoding, decoding into the current frame if it is the same size
+     * @param encoded Encoded frame. Its reader index is not moved
+     */
+    public void setFrame(ByteBuf encoded) {
+        FrameBuffer frame;
+        try {
+            frame = new FrameBufferBinary.Decoder().decode(encoded,
+                    this.frame instanceof ArrayFrameBuffer array ? array : null);
+        } catch (IOException e) {
+            CCGraphics.LOGGER.error("Unable to decode frame buffer", e);
+            return;
+        }
+        setFrame(frame);
+    }
+
+    /**
+     * Apply changes from the server to the frame in place
+     * @param delta Changes to apply
+     * @return If the changes could be applied
+     */
+    public boolean applyDelta(FrameBufferDelta delta) {
+        return frame != null && delta.applyTo(frame);
+    }
+
     protected static ScreenHandlerType<GraphicsComputerMenu> createMenu() {
         return ContainerData.toType(ComputerContainerData.STREAM_CODEC, (id, inv, data) -> {
             return new GraphicsComputerMenu(TYPE, id, inv, data);
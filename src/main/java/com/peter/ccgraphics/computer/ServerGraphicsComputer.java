@@ -1,18 +1,24 @@
 package com.peter.ccgraphics.computer;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.peter.ccgraphics.data.DamageTracker;
+import com.peter.ccgraphics.data.FrameBufferDelta;
+import com.peter.ccgraphics.font.FontLoader;
+import com.peter.ccgraphics.font.LuaFont;
+import com.peter.ccgraphics.lua.ArrayFrameBuffer;
 import com.peter.ccgraphics.lua.FrameBuffer;
-import com.peter.ccgraphics.lua.GraphicsTerminal;
+import com.peter.ccgraphics.lua.TerminalRenderer;
+import com.peter.ccgraphics.networking.ComputerFrameDeltaPacket;
 import com.peter.ccgraphics.networking.ComputerFramePacket;
 
 import dan200.computercraft.shared.computer.core.ServerComputer;
 import dan200.computercraft.shared.computer.core.TerminalSize;
-import dan200.computercraft.shared.computer.menu.ComputerMenu;
 import dan200.computercraft.shared.computer.terminal.NetworkedTerminal;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
-import net.minecraft.server.MinecraftServer;
+import net.minecraft.screen.ScreenHandler;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.math.BlockPos;
@@ -24,40 +30,53 @@ public class ServerGraphicsComputer extends ServerComputer {
 
     protected AtomicBoolean termFrameBufferInvalid = new AtomicBoolean(true);
 
-    private final ServerWorld world;
-
     protected NetworkedTerminal terminal;
 
     protected GraphicsComputerComponent graphicsComponent;
 
     protected FrameBuffer lastFrame;
 
+    protected final TerminalRenderer termRenderer = new TerminalRenderer(true);
+    /** The renderer's frame as listeners last received it, which terminal deltas are calculated against */
+    protected ArrayFrameBuffer sentTermFrame;
+
     protected int cursorBlink = 0;
     protected boolean cursorLast = false;
     protected static final int CURSOR_BLINK_MAX = 16;
     protected static final int CURSOR_BLINK_SWITCH = CURSOR_BLINK_MAX / 2;
 
-    protected LinkedList<ServerPlayerEntity> addedListeners = new LinkedList<>();
+    /**
+     * A player with this computer's menu open
+     * @param player Player viewing the computer
+     * @param menu   Menu the player has open, for its sync ID
+     */
+    protected record Listener(ServerPlayerEntity player, ScreenHandler menu) {
+    }
+
+    /** Players with this computer's menu open, kept up to date by the menu so no tick has to scan every player */
+    protected final List<Listener> listeners = new ArrayList<>();
+    /** Listeners added since the last tick, which need the current frame even if nothing changed */
+    protected final List<Listener> addedListeners = new ArrayList<>();
 
     public ServerGraphicsComputer(ServerWorld level, BlockPos position,
             int terminalWidth, int terminalHeight, Properties properties, GraphicsComputerComponent graphicsComponent) {
         super(level, position, properties.terminalSize(new TerminalSize(terminalWidth / 6, terminalHeight / 9)));
         this.pixelWidth = terminalWidth;
         this.pixelHeight = terminalHeight;
-        world = level;
         terminal = getTerminalState().create();
         this.graphicsComponent = graphicsComponent;
     }
 
     protected boolean hasListeners() {
-        MinecraftServer server = world.getServer();
-        for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
-            if (player.currentScreenHandler instanceof ComputerMenu
-                    && ((ComputerMenu) player.currentScreenHandler).getComputer() == this) {
-                return true;
-            }
-        }
-        return false;
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Drop listeners whose menu closed without telling us (such as when the player left or died)
+     */
+    protected void pruneListeners() {
+        listeners.removeIf(listener -> listener.player().isRemoved()
+                || listener.player().currentScreenHandler != listener.menu());
     }
 
     protected boolean updateFrameBuffer() {
@@ -67,10 +86,10 @@ public class ServerGraphicsComputer extends ServerComputer {
         FrameBuffer frameBuffer = null;
 
         if (graphicsComponent.isGraphical()) {
-            if (!graphicsComponent.pollChanged()) {
+            frameBuffer = graphicsComponent.takeFrameBuffer();
+            if (frameBuffer == null) {
                 return false;
             }
-            frameBuffer = graphicsComponent.getFrameBuffer();
         } else if (graphicsComponent.isTerm()) {
             boolean cursor = (cursorBlink < CURSOR_BLINK_SWITCH) && terminal.getCursorBlink();
 
@@ -80,30 +99,76 @@ public class ServerGraphicsComputer extends ServerComputer {
                 return false;
             }
 
-            if (termChanged)
+            if (termChanged) {
                 getTerminalState().apply(terminal);
+                // The computer only reports that something changed, so every row is compared with the cells the
+                // renderer last drew. Only cells that differ are drawn, and only the rows they are in are sent
+                termRenderer.markChanged();
+            }
 
-            frameBuffer = GraphicsTerminal.renderToFrame(cursor, terminal);
+            LuaFont font = FontLoader.getFont("mono", 7);
+            int width = 2 + (font.hSpacing * terminal.getWidth());
+            int height = 2 + (font.vSpacing * terminal.getHeight());
+            // Packets are snapshots of the frame's encoding, so the renderer can keep drawing into its frame
+            frameBuffer = termRenderer.render(terminal, font, width, height, cursor);
 
             cursorLast = cursor;
+            if (frameBuffer == lastFrame)
+                return sendTermDelta(frameBuffer);
+
+            // A new frame is sent whole, then kept up to date with deltas from the rows the renderer draws into
+            frameBuffer.setDamageTracking(true);
+            frameBuffer.getDamage().clear();
+            if (sentTermFrame == null || sentTermFrame.getWidth() != width || sentTermFrame.getHeight() != height)
+                sentTermFrame = new ArrayFrameBuffer(width, height);
+            frameBuffer.readPixels(0, sentTermFrame.getBuffer(), 0, frameBuffer.getLength());
         }
 
         if (frameBuffer == null) {
             throw new IllegalStateException("Frame buffer was not set, how did we get here?");
         }
 
-        MinecraftServer server = world.getServer();
-        for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
-            if (player.currentScreenHandler instanceof ComputerMenu
-                    && ((ComputerMenu) player.currentScreenHandler).getComputer() == this) {
-                ServerPlayNetworking.send(player,
-                        new ComputerFramePacket(frameBuffer, player.currentScreenHandler.syncId));
-            }
+        // Every packet shares the frame's encoding, so it is only encoded once
+        for (Listener listener : listeners) {
+            ServerPlayNetworking.send(listener.player(),
+                    ComputerFramePacket.snapshot(frameBuffer, listener.menu().syncId));
         }
+        // Packets hold the encoding rather than the pixels, so the old frame can be reused. The renderer's frame is
+        // not from the component, so is ignored
+        if (lastFrame != null && lastFrame != frameBuffer)
+            graphicsComponent.recycleFrameBuffer(lastFrame);
         lastFrame = frameBuffer;
         return true;
     }
 
+    /**
+     * Send the changes to the terminal frame since it was last sent. Listeners added since then have nothing to apply
+     * the changes to, so are sent the whole frame
+     * @param frame The renderer's frame
+     * @return If anything changed
+     */
+    protected boolean sendTermDelta(FrameBuffer frame) {
+        DamageTracker damage = frame.getDamage();
+        DamageTracker.Rect bounds = damage.getBounds();
+        damage.clear();
+        if (bounds == null)
+            return false;
+        // Rows the renderer did not draw into still match what listeners have
+        int width = frame.getWidth();
+        FrameBufferDelta delta = FrameBufferDelta.between(sentTermFrame, frame, bounds.y() * width,
+                (bounds.y() + bounds.height()) * width);
+        if (delta.isEmpty())
+            return false;
+        delta.applyTo(sentTermFrame);
+        for (Listener listener : listeners) {
+            int syncId = listener.menu().syncId;
+            ServerPlayNetworking.send(listener.player(), addedListeners.contains(listener)
+                    ? ComputerFramePacket.snapshot(frame, syncId)
+                    : new ComputerFrameDeltaPacket(delta, syncId));
+        }
+        return true;
+    }
+
     @Override
     protected void onTerminalChanged() {
         termFrameBufferInvalid.set(true);
@@ -115,11 +180,12 @@ public class ServerGraphicsComputer extends ServerComputer {
     protected void tickServer() {
         super.tickServer();
 
-        if (!updateFrameBuffer()) {
-            if (!addedListeners.isEmpty()) {
-                for (ServerPlayerEntity player : addedListeners) {
-                    ServerPlayNetworking.send(player,
-                            new ComputerFramePacket(lastFrame, player.currentScreenHandler.syncId));
+        pruneListeners();
+        if (!updateFrameBuffer() && lastFrame != null) {
+            for (Listener listener : addedListeners) {
+                if (listeners.contains(listener)) {
+                    ServerPlayNetworking.send(listener.player(),
+                            ComputerFramePacket.snapshot(lastFrame, listener.menu().syncId));
                 }
             }
         }
@@ -141,7 +207,23 @@ public class ServerGraphicsComputer extends ServerComputer {
     //     super.markTerminalChanged();
     // }
 
-    public void addListener(ServerPlayerEntity player) {
-        addedListeners.add(player);
+    /**
+     * Start sending frames to a player
+     * @param player Player that opened the menu
+     * @param menu   Menu the player opened
+     */
+    public void addListener(ServerPlayerEntity player, ScreenHandler menu) {
+        Listener listener = new Listener(player, menu);
+        listeners.add(listener);
+        addedListeners.add(listener);
+    }
+
+    /**
+     * Stop sending frames to a menu
+     * @param menu Menu that was closed
+     */
+    public void removeListener(ScreenHandler menu) {
+        listeners.removeIf(listener -> listener.menu() == menu);
+        addedListeners.removeIf(listener -> listener.menu() == menu);
     }
 }
@@ -0,0 +1,225 @@
+package com.peter.ccgraphics.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records which regions of a frame have been modified.<br/>
+ * <br/>
+ * The frame is split into {@value #TILE_SIZE}x{@value #TILE_SIZE} pixel tiles, and a bit is kept for each tile.
+ * Marking is constant time per pixel; merging into rectangles is only done when the damage is read.
+ */
+public class DamageTracker {
+
+    /**
+     * Width & height of a tile in pixels
+     */
+    public static final int TILE_SIZE = 16;
+    private static final int TILE_SHIFT = 4;
+
+    private final int width;
+    private final int height;
+    private final int tilesX;
+    private final int tilesY;
+
+    private final long[] tiles;
+    private boolean damaged = false;
+
+    /**
+     * A damaged region of a frame, in pixels
+     */
+    public record Rect(int x, int y, int width, int height) {
+    }
+
+    /**
+     * Create a new tracker with no damage
+     * @param width  Width of the frame
+     * @param height Height of the frame
+     */
+    public DamageTracker(int width, int height) {
+        this.width = width;
+        this.height = height;
+        tilesX = (width + TILE_SIZE - 1) >> TILE_SHIFT;
+        tilesY = (height + TILE_SIZE - 1) >> TILE_SHIFT;
+        tiles = new long[(tilesX * tilesY + 63) >> 6];
+    }
+
+    private void setTile(int tile) {
+        tiles[tile >> 6] |= 1L << tile;
+    }
+
+    /**
+     * Check if a tile has been damaged
+     * @param tileX X position of the tile (in tiles)
+     * @param tileY Y position of the tile (in tiles)
+     * @return If any pixel in the tile was marked
+     */
+    public boolean isTileDamaged(int tileX, int tileY) {
+        int tile = tileX + tileY * tilesX;
+        return (tiles[tile >> 6] & (1L << tile)) != 0;
+    }
+
+    /**
+     * Mark a single pixel as damaged
+     * @param x X position of the pixel
+     * @param y Y position of the pixel
+     */
+    public void mark(int x, int y) {
+        setTile((x >> TILE_SHIFT) + (y >> TILE_SHIFT) * tilesX);
+        damaged = true;
+    }
+
+    /**
+     * Mark a region as damaged. The region is clipped to the frame
+     * @param x X position of the region
+     * @param y Y position of the region
+     * @param w Width of the region
+     * @param h Height of the region
+     */
+    public void mark(int x, int y, int w, int h) {
+        int x1 = Math.min(x + w, width);
+        int y1 = Math.min(y + h, height);
+        x = Math.max(x, 0);
+        y = Math.max(y, 0);
+        if (x >= x1 || y >= y1)
+            return;
+        int tx1 = (x1 - 1) >> TILE_SHIFT;
+        int ty1 = (y1 - 1) >> TILE_SHIFT;
+        for (int ty = y >> TILE_SHIFT; ty <= ty1; ty++) {
+            for (int tx = x >> TILE_SHIFT; tx <= tx1; tx++) {
+                setTile(tx + ty * tilesX);
+            }
+        }
+        damaged = true;
+    }
+
+    /**
+     * Mark a run of pixels by index as damaged. The run may wrap across rows
+     * @param index  Index of the first pixel (<code>x + y * width</code>)
+     * @param length Number of pixels in the run
+     */
+    public void markSpan(int index, int length) {
+        if (length <= 0)
+            return;
+        int y = index / width;
+        int x = index % width;
+        int end = index + length;
+        int endY = (end - 1) / width;
+        if (y == endY) {
+            mark(x, y, length, 1);
+        } else {
+            mark(x, y, width - x, 1);
+            mark(0, y + 1, width, endY - y - 1);
+            mark(0, endY, (end - 1) % width + 1, 1);
+        }
+    }
+
+    /**
+     * Mark the entire frame as damaged
+     */
+    public void markAll() {
+        mark(0, 0, width, height);
+    }
+
+    /**
+     * Check if anything has been marked since the last clear
+     * @return If any region is damaged
+     */
+    public boolean isDamaged() {
+        return damaged;
+    }
+
+    /**
+     * Get the smallest rectangle containing all damage
+     * @return Bounds of the damage, or <code>null</code> if nothing was damaged
+     */
+    public Rect getBounds() {
+        if (!damaged)
+            return null;
+        int minX = tilesX, minY = tilesY, maxX = -1, maxY = -1;
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                if (isTileDamaged(tx, ty)) {
+                    minX = Math.min(minX, tx);
+                    maxX = Math.max(maxX, tx);
+                    minY = Math.min(minY, ty);
+                    maxY = ty;
+                }
+            }
+        }
+        return toPixels(minX, minY, maxX + 1, maxY + 1);
+    }
+
+    /**
+     * Get the damaged regions, merged into as few rectangles as possible.<br/>
+     * <br/>
+     * Damaged tiles are joined into horizontal runs, and runs covering the same columns in consecutive tile rows are
+     * joined vertically.
+     * @return Damaged regions, in pixels and clipped to the frame
+     */
+    public List<Rect> getRects() {
+        List<Rect> rects = new ArrayList<>();
+        if (!damaged)
+            return rects;
+        // Rects still being extended downward, as {startX, endX, startY}
+        List<int[]> open = new ArrayList<>();
+        List<int[]> next = new ArrayList<>();
+        for (int ty = 0; ty < tilesY; ty++) {
+            int tx = 0;
+            while (tx < tilesX) {
+                if (!isTileDamaged(tx, ty)) {
+                    tx++;
+                    continue;
+                }
+                int start = tx;
+                while (tx < tilesX && isTileDamaged(tx, ty))
+                    tx++;
+                int[] run = null;
+                for (int i = 0; i < open.size(); i++) {
+                    int[] o = open.get(i);
+                    if (o[0] == start && o[1] == tx) {
+                        run = open.remove(i);
+                        break;
+                    }
+                }
+                next.add(run != null ? run : new int[] { start, tx, ty });
+            }
+            for (int[] o : open)
+                rects.add(toPixels(o[0], o[2], o[1], ty));
+            open.clear();
+            List<int[]> swap = open;
+            open = next;
+            next = swap;
+        }
+        for (int[] o : open)
+            rects.add(toPixels(o[0], o[2], o[1], tilesY));
+        return rects;
+    }
+
+    private Rect toPixels(int tx0, int ty0, int tx1, int ty1) {
+        int x = tx0 << TILE_SHIFT;
+        int y = ty0 << TILE_SHIFT;
+        return new Rect(x, y, Math.min(tx1 << TILE_SHIFT, width) - x, Math.min(ty1 << TILE_SHIFT, height) - y);
+    }
+
+    /**
+     * Remove all damage
+     */
+    public void clear() {
+        if (!damaged)
+            return;
+        for (int i = 0; i < tiles.length; i++)
+            tiles[i] = 0;
+        damaged = false;
+    }
+
+    /**
+     * Get the damaged regions and then clear them
+     * @return Damaged regions, as returned by {@link #getRects()}
+     */
+    public List<Rect> poll() {
+        List<Rect> rects = getRects();
+        clear();
+        return rects;
+    }
+}
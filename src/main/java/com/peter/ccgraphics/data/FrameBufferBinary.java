@@ -1,11 +1,10 @@
 package com.peter.ccgraphics.data;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Map.Entry;
 
-import org.apache.commons.lang3.ArrayUtils;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,6 +12,9 @@ import com.peter.ccgraphics.ColorHelper;
 import com.peter.ccgraphics.lua.ArrayFrameBuffer;
 import com.peter.ccgraphics.lua.FrameBuffer;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
 public class FrameBufferBinary {
 
     protected static final Utf8String FBB_TYPE_STRING = new Utf8String("fbb", true);
@@ -25,8 +27,14 @@ public class FrameBufferBinary {
 
     public static class Encoder {
 
+        /** Number of pixels read at a time from frames that are not array backed */
+        protected static final int CHUNK_SIZE = 4096;
+
         protected final FrameBuffer frameBuffer;
-        protected final ArrayList<Byte> binary = new ArrayList<>();
+        /** Buffer being written to. Only valid during an encode */
+        protected ByteBuf binary;
+        /** Writer index of {@link #binary} when the encode started */
+        protected int start;
 
         protected boolean rle8 = false;
         protected boolean rle16 = false;
@@ -39,9 +47,33 @@ public class FrameBufferBinary {
 
         protected boolean indexed15 = false;
 
-        protected final HashMap<Integer, Integer> colorIndex = new HashMap<>();
+        /** Map of color to color index */
+        protected final IntIntMap colorIndex = new IntIntMap(256);
         protected int maxColorIndex = -1;
-        protected final CountingMap<Integer> colorCount = new CountingMap<>();
+        /** Color for each color index */
+        protected int[] palette = new int[256];
+        /** Number of pixels using each color index */
+        protected int[] colorCount = new int[256];
+
+        /** Pixels last read by {@link #readChunk(FrameBuffer, int)} for frames that are not array backed */
+        protected int[] chunk;
+        /** Index in the array returned by {@link #readChunk(FrameBuffer, int)} of the first pixel read */
+        protected int chunkOffset;
+        /** Number of pixels read by the last {@link #readChunk(FrameBuffer, int)} */
+        protected int chunkLength;
+
+        /** If {@link #analyze()} has been run since the last change to encoding options */
+        protected boolean analyzed = false;
+        /** If the frame could be indexed during analysis */
+        protected boolean indexable = false;
+        /** Number of pixels that would be skipped by RLE */
+        protected int rleSkipped;
+        /** Bytes used by RLE8 lengths */
+        protected int rleBytes8;
+        /** Bytes used by RLE16 lengths */
+        protected int rleBytes16;
+        /** Bytes used by RLE7/15 lengths */
+        protected int rleBytes15;
 
         public Encoder(FrameBuffer frameBuffer) {
             this.frameBuffer = frameBuffer;
@@ -76,6 +108,8 @@ public class FrameBufferBinary {
         }
 
         public void setOpaque(boolean v) {
+            if (opaque != v)
+                analyzed = false;
             opaque = v;
         }
 
@@ -96,57 +130,180 @@ public class FrameBufferBinary {
                 }
             }
             colorIndex.put(color, index);
+            if (index >= palette.length) {
+                int newLength = Math.max(palette.length * 2, index + 1);
+                palette = Arrays.copyOf(palette, newLength);
+                colorCount = Arrays.copyOf(colorCount, newLength);
+            }
+            palette[index] = color;
             maxColorIndex = (index > maxColorIndex) ? index : maxColorIndex;
         }
 
         public void clearColorIndex() {
             colorIndex.clear();
+            Arrays.fill(colorCount, 0);
+            maxColorIndex = -1;
+            analyzed = false;
         }
 
         protected int lastColorIndex = 0;
 
-        public boolean tryIndexed() {
+        /**
+         * Read a run of pixels of a frame, starting at <code>from</code>. Uses the backing array directly for
+         * {@link ArrayFrameBuffer}s, otherwise up to {@link #CHUNK_SIZE} pixels are copied into a reused array so
+         * encoding never copies the whole frame.<br/>
+         * <br/>
+         * Sets {@link #chunkOffset} and {@link #chunkLength} to the pixels read
+         * @param frame Frame to read
+         * @param from  Index of the first pixel to read
+         * @return Array containing the pixels, ARGB 8b each
+         */
+        protected int[] readChunk(FrameBuffer frame, int from) {
+            int length = frame.getLength() - from;
+            if (frame instanceof ArrayFrameBuffer arrayFrame) {
+                chunkOffset = from;
+                chunkLength = length;
+                return arrayFrame.getBuffer();
+            }
+            if (chunk == null || chunk.length < Math.min(CHUNK_SIZE, length))
+                chunk = new int[Math.min(CHUNK_SIZE, length)];
+            chunkOffset = 0;
+            chunkLength = Math.min(length, chunk.length);
+            frame.readPixels(from, chunk, 0, chunkLength);
+            return chunk;
+        }
+
+        /**
+         * Gather run length statistics, the color index, and color frequencies in a single pass over the frame.<br/>
+         * <br/>
+         * Results are reused by {@link #tryRLE()}, {@link #tryIndexed()} and {@link #encode(ByteBuf)}. Encoders for
+         * more than one frame override this to analyze all of them together, so the options chosen suit every frame
+         */
+        protected void analyze() {
+            if (analyzed)
+                return;
+            beginAnalysis();
+            analyzeFrame(frameBuffer);
+        }
+
+        /**
+         * Reset the results of a previous analysis before analyzing frames with {@link #analyzeFrame}
+         */
+        protected void beginAnalysis() {
+            clearColorIndex();
+            analyzed = true;
             lastColorIndex = 0;
-            boolean suc = tryIndexed(frameBuffer);
-            if (suc) {
+            indexed15 = false;
+            indexable = true;
+            rleSkipped = 0;
+            rleBytes8 = 0;
+            rleBytes16 = 0;
+            rleBytes15 = 0;
+        }
+
+        /**
+         * Add a frame to the current analysis. Colors are indexed across every frame analyzed, and run lengths are
+         * counted separately for each frame, as each frame's runs are encoded separately
+         * @param frame Frame to analyze
+         */
+        protected void analyzeFrame(FrameBuffer frame) {
+            int length = frame.getLength();
+            int ns = 0;
+            int b8 = 0;
+            int b16 = 0;
+            int b15 = 0;
+            int run = -1;
+            int lastColor = length > 0 ? frame.getColorIndexed(0) : 0;
+            if (opaque)
+                lastColor &= 0x00ffffff;
+            int lastIndex = -1;
+            for (int from = 0; from < length; from += chunkLength) {
+                int[] pixels = readChunk(frame, from);
+                int end = chunkOffset + chunkLength;
+                for (int i = chunkOffset; i < end; i++) {
+                    int color = pixels[i];
+                    if (opaque)
+                        color &= 0x00ffffff;
+
+                    if (indexable) {
+                        if (color != lastColor || lastIndex < 0) {
+                            lastIndex = colorIndex.get(color, -1);
+                            if (lastIndex < 0) {
+                                if (lastColorIndex == uint8.MAX + 1) {
+                                    indexed15 = true;
+                                } else if (lastColorIndex > Uint7_15.MAX_15) {
+                                    indexable = false;
+                                }
+                                if (indexable) {
+                                    lastIndex = lastColorIndex;
+                                    indexColor(lastColorIndex, color);
+                                    lastColorIndex++;
+                                }
+                            }
+                        }
+                        if (indexable)
+                            colorCount[lastIndex]++;
+                    }
+
+                    if (color == lastColor) {
+                        run++;
+                        ns++;
+                        continue;
+                    }
+
+                    b8 += rleBytes8(run);
+                    b16 += rleBytes16(run);
+                    b15 += rleBytes15(run);
+
+                    lastColor = color;
+                    run = 0;
+                }
+            }
+
+            b8 += rleBytes8(run);
+            b16 += rleBytes16(run);
+            b15 += rleBytes15(run);
+
+            rleSkipped += ns;
+            rleBytes8 += b8;
+            rleBytes16 += b16;
+            rleBytes15 += b15;
+        }
+
+        // Byte costs match what writeRLE emits: a run of 0 still needs one length value
+
+        private static int rleBytes8(int run) {
+            return run / uint8.MAX + 1;
+        }
+
+        private static int rleBytes16(int run) {
+            return (run / uint16.MAX + 1) * 2;
+        }
+
+        private static int rleBytes15(int run) {
+            int bytes = (run / Uint7_15.MAX) * 2;
+            run %= Uint7_15.MAX;
+            return bytes + ((run <= Uint7_15.MAX_7) ? 1 : 2);
+        }
+
+        public boolean tryIndexed() {
+            analyze();
+            if (indexable) {
                 indexed = true;
                 // LOGGER.info("Indexing succeeded with {} colors", lastColorIndex);
             } else {
                 indexed = false;
                 indexed15 = false;
             }
-            return suc;
-        }
-
-        protected boolean tryIndexed(FrameBuffer frameBuffer) {
-            for (int i = 0; i < frameBuffer.getLength(); i++) {
-                int color = frameBuffer.getColorIndexed(i);
-                if (opaque)
-                    color &= 0x00ffffff;
-                colorCount.count(color);
-                if (colorIndex.containsKey(color)) {
-                    continue;
-                }
-                if (lastColorIndex == uint8.MAX + 1) {
-                    indexed15 = true;
-                    // LOGGER.info("Switching to indexed 15");
-                    // return false;
-                } else if (lastColorIndex > Uint7_15.MAX_15) {
-                    // LOGGER.info("Indexing failed");
-                    return false;
-                }
-                indexColor(lastColorIndex, color);
-                lastColorIndex++;
-            }
-            return true;
+            return indexable;
         }
 
         public void tryRLE() {
-            int[] totals = tryRLE(frameBuffer);
-            int ns = totals[0];
-            int b8 = totals[1];
-            int b16 = totals[2];
-            int b15 = totals[3];
+            analyze();
+            int ns = rleSkipped;
+            int b8 = rleBytes8;
+            int b16 = rleBytes16;
+            int b15 = rleBytes15;
 
             int min = b8;
             if (b15 < min) {
@@ -176,67 +333,16 @@ public class FrameBufferBinary {
 
         }
 
-        protected int[] tryRLE(FrameBuffer frameBuffer) {
-            int ns = 0;
-            int b8 = 0;
-            int b16 = 0;
-            int b15 = 0;
-            int run = -1;
-            int lastColor = frameBuffer.getColorIndexed(0);
-            for (int i = 0; i < frameBuffer.getLength(); i++) {
-                int color = frameBuffer.getColorIndexed(i);
-                if (color == lastColor) {
-                    run++;
-                    ns++;
-                    continue;
-                }
-
-                b8 += Math.ceilDiv(run, uint8.MAX + 1);
-                b16 += Math.ceilDiv(run, uint16.MAX + 1) * 2;
-
-                while (run >= Uint7_15.MAX) {
-                    b15 += 2;
-                    run -= Uint7_15.MAX;
-                }
-
-                if (run < Uint7_15.MAX_7) {
-                    b15++;
-                } else {
-                    b15 += 2;
-                }
-
-                lastColor = color;
-                run = 0;
-            }
-
-            b8 += Math.ceilDiv(run, uint8.MAX + 1);
-            b16 += Math.ceilDiv(run, uint16.MAX + 1);
-
-            while (run >= Uint7_15.MAX) {
-                b15 += 2;
-                run -= Uint7_15.MAX;
-            }
-
-            if (run < Uint7_15.MAX_7) {
-                b15++;
-            } else {
-                b15 += 2;
-            }
-            return new int [] { ns, b8, b16, b15 };
-        }
-
         protected void write(byte b) {
-            binary.add(b);
+            binary.writeByte(b);
         }
 
         protected void write(int b) {
-            binary.add((byte) b);
+            binary.writeByte(b);
         }
 
         protected void write(byte[] bytes) {
-            for (int i = 0; i < bytes.length; i++) {
-                write(bytes[i]);
-            }
+            binary.writeBytes(bytes);
         }
 
         protected void write(BinaryDataType data) {
@@ -244,57 +350,109 @@ public class FrameBufferBinary {
         }
 
         protected void write(byte b, int index) {
-            binary.set(index, b);
+            binary.setByte(start + index, b);
         }
 
         protected void write(byte[] bytes, int index) {
-            for (int i = 0; i < bytes.length; i++) {
-                write(bytes[i], index + i);
-            }
+            binary.setBytes(start + index, bytes);
         }
 
         protected void write(BinaryDataType data, int index) {
             write(data.toBytes(), index);
         }
 
+        /**
+         * Write a {@link uint8} without allocating an intermediate array
+         * @param value Value to write
+         */
+        protected void writeUint8(int value) {
+            binary.writeByte(value);
+        }
+
+        /**
+         * Write a {@link uint16} without allocating an intermediate array
+         * @param value Value to write
+         */
+        protected void writeUint16(int value) {
+            binary.writeShort(value);
+        }
+
+        /**
+         * Overwrite a {@link uint16} at a previous position
+         * @param value Value to write
+         * @param index Position relative to the start of the encoded data
+         */
+        protected void writeUint16(int value, int index) {
+            binary.setShort(start + index, value);
+        }
+
+        /**
+         * Write a {@link uint32} without allocating an intermediate array
+         * @param value Value to write
+         */
+        protected void writeUint32(long value) {
+            binary.writeInt((int) value);
+        }
+
+        /**
+         * Overwrite a {@link uint32} at a previous position
+         * @param value Value to write
+         * @param index Position relative to the start of the encoded data
+         */
+        protected void writeUint32(long value, int index) {
+            binary.setInt(start + index, (int) value);
+        }
+
+        /**
+         * Write a {@link Uint7_15} without allocating an intermediate array
+         * @param value Value to write
+         */
+        protected void writeUint7_15(int value) {
+            if (value <= Uint7_15.MAX_7) {
+                binary.writeByte(value);
+            } else {
+                binary.writeByte(Uint7_15.MASK | (value >> 8));
+                binary.writeByte(value);
+            }
+        }
+
         protected void writePixel(int color) {
             if (indexed) {
-                if (!colorIndex.containsKey(color))
+                int index = colorIndex.get(color, -1);
+                if (index < 0)
                     throw new RuntimeException("Color mode was set to indexed, but color 0x"
                             + Integer.toHexString(color) + " could not be found in index;");
-                int index = colorIndex.get(color);
                 if (indexed15) {
-                    write(Uint7_15.encode(index));
+                    writeUint7_15(index);
                 } else {
-                    write(uint8.encode(index));
+                    writeUint8(index);
                 }
             } else if (opaque) {
-                write(new byte[] { (byte) ((color & 0xff0000) >> 16), (byte) ((color & 0x00ff00) >> 8),
-                        (byte) (color & 0x0000ff) });
+                binary.writeMedium(color & 0xffffff);
             } else {
-                write(uint32.encode(color));
+                writeUint32(color);
             }
         }
 
         protected void writeRLE(int length) {
             if (rle15) {
                 while (length >= Uint7_15.MAX) {
-                    write(Uint7_15.encode(Uint7_15.MAX));
+                    writeUint7_15(Uint7_15.MAX);
                     length -= Uint7_15.MAX;
                 }
-                write(Uint7_15.encode(length));
+                writeUint7_15(length);
             } else if (rle8) {
                 while (length >= uint8.MAX) {
-                    write(uint8.encode(uint8.MAX));
+                    writeUint8(uint8.MAX);
                     length -= uint8.MAX;
                 }
-                write(uint8.encode(length));
+                writeUint8(length);
             } else if (rle16) {
                 while (length >= uint16.MAX) {
-                    write(uint16.encode(uint16.MAX));
+                    writeUint16(uint16.MAX);
                     length -= uint16.MAX;
                 }
-                write(uint16.encode(length));
+                writeUint16(length);
             }
         }
 
@@ -302,31 +460,32 @@ public class FrameBufferBinary {
             // LOGGER.info("- Writing color index table at 0x{}", pointerHex());
             int startPos = pointer();
             write(HEADER_TABLE_ENTRY_COLOR_INDEX_TYPE);
-            write(new byte[2]); // leaving space for entry length;
+            writeUint16(0); // leaving space for entry length;
 
-            int[] colors = new int[colorIndex.size()];
+            int[] colors = new int[maxColorIndex + 1];
             if (indexed15) {
-                Integer[] arr = colorCount.sort(new Integer[colorIndex.size()]);
-                for (int i = 0; i < arr.length; i++) {
-                    colors[i] = arr[i];
-                    colorIndex.put(arr[i], i);
+                // most common colors first so they get the 1 byte indices
+                long[] order = new long[colors.length];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = ((long) (Integer.MAX_VALUE - colorCount[i]) << 32) | i;
                 }
-            } else {
-                for (Entry<Integer, Integer> entry : colorIndex.entrySet()) {
-                    colors[entry.getValue()] = entry.getKey();
+                Arrays.sort(order);
+                for (int i = 0; i < order.length; i++) {
+                    colors[i] = palette[(int) order[i]];
+                    colorIndex.put(colors[i], i);
                 }
+            } else {
+                System.arraycopy(palette, 0, colors, 0, colors.length);
             }
 
             for (int i = 0; i < colors.length; i++) {
-                int[] comp = ColorHelper.unpackRGBA(colors[i]);
-                if (!opaque)
-                    write(uint8.encode(comp[3])); // alpha
-                write(uint8.encode(comp[0])); // red
-                write(uint8.encode(comp[1])); // green
-                write(uint8.encode(comp[2])); // blue
+                if (opaque)
+                    binary.writeMedium(colors[i] & 0xffffff); // red, green, blue
+                else
+                    binary.writeInt(colors[i]); // alpha, red, green, blue
             }
             int length = pointer() - startPos;
-            write(uint16.encode(length), startPos + 2); // write the entry length
+            writeUint16(length, startPos + 2); // write the entry length
         }
         
         protected void writeHeaderFlags(ByteFlags flags) {
@@ -343,28 +502,58 @@ public class FrameBufferBinary {
         protected void writeHeader(Utf8String fileType) {
             write(fileType);
 
-            write(uint32.encode(0)); // leaving space for pointer to data section
+            writeUint32(0); // leaving space for pointer to data section
 
             // LOGGER.info("- 0x{} Width: {}", pointerHex(), frameBuffer.getWidth());
-            write(uint16.encode(frameBuffer.getWidth()));
+            writeUint16(frameBuffer.getWidth());
             // LOGGER.info("- 0x{} Height: {}", pointerHex(), frameBuffer.getHeight());
-            write(uint16.encode(frameBuffer.getHeight()));
+            writeUint16(frameBuffer.getHeight());
 
             writeHeaderFlags(new ByteFlags());
 
-            write(new byte[3]); // padding
+            binary.writeZero(3); // padding
         }
 
         protected int pointer() {
-            return binary.size();
+            return binary.writerIndex() - start;
         }
 
         protected String pointerHex() {
-            return Integer.toHexString(binary.size());
+            return Integer.toHexString(pointer());
         }
 
+        /**
+         * Set the buffer the next encode will write to. Offsets used by {@link #pointer()} are relative to the
+         * current writer index of <code>out</code>
+         * @param out Buffer to write to
+         */
+        protected void begin(ByteBuf out) {
+            binary = out;
+            start = out.writerIndex();
+        }
+
+        /**
+         * Encode the frame buffer into a new byte array
+         * @return Encoded frame buffer
+         */
         public byte[] encode() {
-            binary.clear();
+            ByteBuf out = Unpooled.buffer();
+            try {
+                encode(out);
+                byte[] bytes = new byte[out.readableBytes()];
+                out.readBytes(bytes);
+                return bytes;
+            } finally {
+                out.release();
+            }
+        }
+
+        /**
+         * Encode the frame buffer directly into the provided buffer, starting at its current writer index
+         * @param out Buffer to write to
+         */
+        public void encode(ByteBuf out) {
+            begin(out);
 
             // LOGGER.info("Starting encode of frame buffer ...");
 
@@ -380,38 +569,43 @@ public class FrameBufferBinary {
 
             // start of data section
             int dataSectionPointer = pointer();
-            write(uint32.encode(dataSectionPointer), 0x4); // write data section pointer in header
+            writeUint32(dataSectionPointer, 0x4); // write data section pointer in header
             // LOGGER.info("- Data section pointer: {}", dataSectionPointer);
 
             int dataStart = pointer();
-            write(uint32.encode(0)); // leaving space for data length value;
+            writeUint32(0); // leaving space for data length value;
 
+            int pixelCount = frameBuffer.getLength();
             int lastPixel = frameBuffer.getColorIndexed(0);
             if (opaque)
                 lastPixel &= 0x00ffffff;
             int length = -1; // set to `-1` to not count first instance of a color
-            for (int i = 0; i < frameBuffer.getLength(); i++) {
-                int color = frameBuffer.getColorIndexed(i);
-                if (opaque)
-                    color &= 0x00ffffff;
-
-                if (!(rle)) {
-                    writePixel(color);
-                    continue;
-                }
+            for (int from = 0; from < pixelCount; from += chunkLength) {
+                int[] pixels = readChunk(frameBuffer, from);
+                int end = chunkOffset + chunkLength;
+                for (int i = chunkOffset; i < end; i++) {
+                    int color = pixels[i];
+                    if (opaque)
+                        color &= 0x00ffffff;
+
+                    if (!(rle)) {
+                        writePixel(color);
+                        continue;
+                    }
 
-                if (lastPixel != color) {
-                    writeRLE(length);
+                    if (lastPixel != color) {
+                        writeRLE(length);
 
-                    writePixel(lastPixel);
+                        writePixel(lastPixel);
 
-                    length = 0;
-                    lastPixel = color;
-                } else {
-                    length++;
+                        length = 0;
+                        lastPixel = color;
+                    } else {
+                        length++;
+                    }
                 }
             }
-            
+
             if (rle) {
                 writeRLE(length);
 
@@ -419,20 +613,24 @@ public class FrameBufferBinary {
             }
 
             int dataLength = pointer() - dataStart;
-            write(uint32.encode(dataLength), dataStart); // write the data section length
+            writeUint32(dataLength, dataStart); // write the data section length
 
             // LOGGER.info("Done encoding frame buffer: Data section was {} bytes", dataLength);
             // float compressionRatio = ((float) pointer()) / ((float) frameBuffer.getLength());
             // LOGGER.info("Compression Ratio: {} bytes per pixel", compressionRatio);
-
-            return ArrayUtils.toPrimitive(binary.toArray(Byte[]::new));
         }
     }
 
     public static class Decoder {
 
         protected FrameBuffer frameBuffer;
-        protected byte[] binary;
+        /** Buffer being read from. Only valid during a decode */
+        protected ByteBuf binary;
+        /** Reader index of {@link #binary} when the decode started */
+        protected int start;
+        /** Number of bytes available to read, relative to {@link #start} */
+        protected int end;
+        /** Read position, relative to {@link #start} */
         protected int pointer;
 
         protected boolean rle8 = false;
@@ -450,11 +648,26 @@ public class FrameBufferBinary {
 
         protected int dataPointer;
 
-        protected final HashMap<Integer, Integer> colorIndex = new HashMap<>();
+        /** Color for each color index */
+        protected int[] palette = new int[0];
+        /** Number of colors in {@link #palette} */
+        protected int paletteSize = 0;
 
         public Decoder() {
         };
 
+        /**
+         * Set the buffer the next decode will read from. Reading starts at the current reader index of
+         * <code>in</code>, which is not modified
+         * @param in Buffer to read from
+         */
+        protected void begin(ByteBuf in) {
+            binary = in;
+            start = in.readerIndex();
+            end = in.readableBytes();
+            pointer = 0;
+        }
+
         protected uint16 readUint16() {
             return read(new uint16());
         }
@@ -467,36 +680,87 @@ public class FrameBufferBinary {
             return read(new uint8());
         }
 
-        protected <T extends BinaryDataType> T read(T type) {
-            if (binary.length < pointer + type.getLength()) {
+        protected void checkReadable(int length) {
+            if (end < pointer + length) {
                 IndexOutOfBoundsException e = new IndexOutOfBoundsException("Tried to read outside array");
                 LOGGER.error("Tried to read outside array", e);
                 throw e;
             }
-            type.fromByte(binary, pointer);
+        }
+
+        protected <T extends BinaryDataType> T read(T type) {
+            checkReadable(type.getLength());
+            byte[] bytes = new byte[type.getLength()];
+            binary.getBytes(start + pointer, bytes);
+            type.fromByte(bytes, 0);
             pointer += type.getLength();
             return type;
         }
 
+        /**
+         * Read a {@link uint8} without allocating
+         * @return Value read
+         */
+        protected int readUint8Value() {
+            checkReadable(1);
+            int v = binary.getUnsignedByte(start + pointer);
+            pointer++;
+            return v;
+        }
+
+        /**
+         * Read a {@link uint16} without allocating
+         * @return Value read
+         */
+        protected int readUint16Value() {
+            checkReadable(2);
+            int v = binary.getUnsignedShort(start + pointer);
+            pointer += 2;
+            return v;
+        }
+
+        /**
+         * Read a {@link uint32} without allocating
+         * @return Value read
+         */
+        protected long readUint32Value() {
+            checkReadable(4);
+            long v = binary.getUnsignedInt(start + pointer);
+            pointer += 4;
+            return v;
+        }
+
+        /**
+         * Read a {@link Uint7_15} without allocating
+         * @return Value read
+         */
+        protected int readUint7_15Value() {
+            int v = readUint8Value();
+            if ((v & Uint7_15.MASK) == Uint7_15.MASK) {
+                v = ((v & 0x7f) << 8) | readUint8Value();
+            }
+            return v;
+        }
+
         protected int readPixel() {
             if (indexed) {
                 int index;
                 if (indexed15) {
-                    index = read(new Uint7_15()).value;
+                    index = readUint7_15Value();
                 } else {
-                    index = readUint8().value;
+                    index = readUint8Value();
                 }
-                if (!colorIndex.containsKey(index)) {
+                if (index >= paletteSize) {
                     throw new RuntimeException("Could not find color in index: " + index);
                 }
-                return colorIndex.get(index);
+                return palette[index];
             } else if (opaque) {
-                int r = readUint8().value;
-                int g = readUint8().value;
-                int b = readUint8().value;
-                return ColorHelper.pack(r, g, b);
+                checkReadable(3);
+                int rgb = binary.getUnsignedMedium(start + pointer);
+                pointer += 3;
+                return 0xff000000 | rgb;
             }
-            return (int) readUint32().value;
+            return (int) readUint32Value();
         }
 
         protected void readHeaderEntries() throws IOException {
@@ -510,7 +774,7 @@ public class FrameBufferBinary {
                 }
                 headersPresent.put(entryType, true);
                 // LOGGER.info("- Header Table Entry: {}", entryType.hex());
-                int entryLength = readUint16().value;
+                int entryLength = readUint16Value();
 
                 readHeaderEntry(entryType, entryStart + entryLength);
 
@@ -535,29 +799,54 @@ public class FrameBufferBinary {
         }
 
         protected void readColorIndex(int entryEnd) {
+            int colorSize = opaque ? 3 : 4;
+            int count = Math.max(0, Math.ceilDiv(entryEnd - pointer, colorSize));
+            if (palette.length < count)
+                palette = new int[count];
+            paletteSize = 0;
             int index = 0;
             while (pointer < entryEnd) {
                 int a = 0xff;
                 if (!opaque)
-                    a = readUint8().value;
-                int r = readUint8().value;
-                int g = readUint8().value;
-                int b = readUint8().value;
+                    a = readUint8Value();
+                int r = readUint8Value();
+                int g = readUint8Value();
+                int b = readUint8Value();
                 int color = ColorHelper.pack(r, g, b, a);
-                colorIndex.put(index, color);
+                palette[index] = color;
                 index++;
             }
+            paletteSize = index;
+        }
+
+        /**
+         * Read a block of 8b color indices, mapping each through the palette
+         * @param pixels Pixel array to write to
+         * @param from   First pixel to write
+         * @param count  Number of pixels to read
+         */
+        protected void readIndexed8(int[] pixels, int from, int count) {
+            checkReadable(count);
+            int offset = start + pointer;
+            for (int i = 0; i < count; i++) {
+                int index = binary.getUnsignedByte(offset + i);
+                if (index >= paletteSize) {
+                    throw new RuntimeException("Could not find color in index: " + index);
+                }
+                pixels[from + i] = palette[index];
+            }
+            pointer += count;
         }
 
         protected void readHeader(Utf8String fileType) throws IOException {
             checkFileType(fileType);
             
-            dataPointer = (int) readUint32().value;
+            dataPointer = (int) readUint32Value();
             // LOGGER.info("- Data pointer: 0x{}", Integer.toHexString(dataPointer));
 
-            width = readUint16().value;
+            width = readUint16Value();
             // LOGGER.info("- 0x{} Width: {}", Integer.toHexString(pointer-2), width);
-            height = readUint16().value;
+            height = readUint16Value();
             // LOGGER.info("- 0x{} Height: {}", Integer.toHexString(pointer-2), height);
 
             ByteFlags flags = read(new ByteFlags());
@@ -593,24 +882,24 @@ public class FrameBufferBinary {
 
             int repetitions = 0;
             if (rle15) {
-                int v = read(new Uint7_15()).value;
+                int v = readUint7_15Value();
                 while (v == Uint7_15.MAX_15) {
                     repetitions += v;
-                    v = read(new Uint7_15()).value;
+                    v = readUint7_15Value();
                 }
                 repetitions += v;
             } else if (rle8) {
-                int v = readUint8().value;
+                int v = readUint8Value();
                 while (v == uint8.MAX) {
                     repetitions += v;
-                    v = readUint8().value;
+                    v = readUint8Value();
                 }
                 repetitions += v;
             } else if (rle16) {
-                int v = readUint16().value;
+                int v = readUint16Value();
                 while (v == uint16.MAX) {
                     repetitions += v;
-                    v = readUint16().value;
+                    v = readUint16Value();
                 }
                 repetitions += v;
             }
@@ -618,18 +907,51 @@ public class FrameBufferBinary {
         }
         
         protected void checkFileType(Utf8String expected) throws IOException {
-            Utf8String fileType = read(new Utf8String());
-            if (!fileType.equals(expected)) {
-                throw new IOException("Invalid file type, was \"" + fileType.getString() + "\", expected \""+expected.string+"\"");
+            byte[] expectedBytes = expected.toBytes();
+            checkReadable(expectedBytes.length);
+            byte[] fileType = new byte[expectedBytes.length];
+            binary.getBytes(start + pointer, fileType);
+            pointer += fileType.length;
+            if (!Arrays.equals(fileType, expectedBytes)) {
+                Utf8String actual = new Utf8String();
+                actual.fromByte(Arrays.copyOf(fileType, fileType.length + 1), 0);
+                throw new IOException("Invalid file type, was \"" + actual.getString() + "\", expected \""+expected.string+"\"");
             }
         }
 
+        /**
+         * Decode a frame buffer from a byte array
+         * @param bytes Encoded frame buffer
+         * @return Decoded frame buffer
+         * @throws IOException If the data was not a valid frame buffer
+         */
         public FrameBuffer decode(byte[] bytes) throws IOException {
-            this.binary = bytes;
+            return decode(Unpooled.wrappedBuffer(bytes));
+        }
 
-            // LOGGER.info("Starting decode of frame buffer ...");
+        /**
+         * Decode a frame buffer directly from a buffer, starting at its reader index. The reader index is not moved,
+         * use {@link #usedBytes()} to find the end of the frame
+         * @param buf Buffer containing the encoded frame buffer
+         * @return Decoded frame buffer
+         * @throws IOException If the data was not a valid frame buffer
+         */
+        public FrameBuffer decode(ByteBuf buf) throws IOException {
+            return decode(buf, null);
+        }
 
-            pointer = 0;
+        /**
+         * Decode a frame buffer directly from a buffer, starting at its reader index, into an existing frame if it is
+         * the right size. The reader index is not moved, use {@link #usedBytes()} to find the end of the frame
+         * @param buf  Buffer containing the encoded frame buffer
+         * @param into Frame to decode into, or <code>null</code> to always make a new frame
+         * @return <code>into</code> if it was the size of the encoded frame, otherwise a new frame
+         * @throws IOException If the data was not a valid frame buffer
+         */
+        public FrameBuffer decode(ByteBuf buf, @Nullable ArrayFrameBuffer into) throws IOException {
+            begin(buf);
+
+            // LOGGER.info("Starting decode of frame buffer ...");
 
             readHeader(FBB_TYPE_STRING);
 
@@ -644,28 +966,36 @@ public class FrameBufferBinary {
             // +--------------+
             pointer = dataPointer;
 
-            long dataLengthLong = readUint32().value;
+            long dataLengthLong = readUint32Value();
             int dataLength = (int) dataLengthLong;
 
-            frameBuffer = new ArrayFrameBuffer(width, height);
+            ArrayFrameBuffer arrayFrame = into != null && into.getWidth() == width && into.getHeight() == height
+                    ? into
+                    : new ArrayFrameBuffer(width, height);
+            frameBuffer = arrayFrame;
+            int[] pixels = arrayFrame.getBuffer();
 
             int pixelIndex = 0;
             while (pointer < dataPointer + dataLength
-                    && pixelIndex < frameBuffer.getLength()) {
+                    && pixelIndex < pixels.length) {
                         
-                if (rle) {
+                if (indexed && !indexed15 && !rle) {
+                    // fixed size indices, so the rest of the data can be expanded in one go
+                    int count = Math.min(pixels.length - pixelIndex, dataPointer + dataLength - pointer);
+                    readIndexed8(pixels, pixelIndex, count);
+                    pixelIndex += count;
+                } else if (rle) {
                     int repetitions = readRLE();
                     int color = readPixel();
-                    for (int i = 0; i <= repetitions; i++) {
-                        if (pixelIndex >= frameBuffer.getLength()) {
-                            LOGGER.error("Pixel run extended outside frame:");
-                            break;
-                        }
-                        frameBuffer.setColorIndexed(pixelIndex, color);
-                        pixelIndex++;
+                    int runEnd = pixelIndex + repetitions + 1;
+                    if (runEnd > pixels.length) {
+                        LOGGER.error("Pixel run extended outside frame:");
+                        runEnd = pixels.length;
                     }
+                    Arrays.fill(pixels, pixelIndex, runEnd, color);
+                    pixelIndex = runEnd;
                 } else {
-                    frameBuffer.setColorIndexed(pixelIndex, readPixel());
+                    pixels[pixelIndex] = readPixel();
                     pixelIndex++;
                 }
             }
@@ -673,6 +1003,11 @@ public class FrameBufferBinary {
                 LOGGER.warn("Data ended early");
                 pointer = dataPointer + dataLength;
             }
+            if (arrayFrame == into) {
+                // Pixels the data did not reach are left as they would be in a new frame
+                Arrays.fill(pixels, pixelIndex, pixels.length, 0);
+                arrayFrame.markDamaged(0, 0, width, height);
+            }
 
             // LOGGER.info("Finished decoding frame buffer");
 
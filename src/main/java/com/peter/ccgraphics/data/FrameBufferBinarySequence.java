@@ -3,11 +3,12 @@ package com.peter.ccgraphics.data;
 import java.io.IOException;
 import java.util.ArrayList;
 
-import org.apache.commons.lang3.ArrayUtils;
-
 import com.peter.ccgraphics.lua.ArrayFrameBuffer;
 import com.peter.ccgraphics.lua.FrameBuffer;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
 public class FrameBufferBinarySequence extends FrameBufferBinary {
 
     public static final Utf8String FBS_TYPE_STRING = new Utf8String("fbs", true);
@@ -34,22 +35,24 @@ public class FrameBufferBinarySequence extends FrameBufferBinary {
 
         protected void writeSkipped(int skippedPixels) {
             while (skippedPixels > uint8.MAX) {
-                write(uint8.encode(uint8.MAX));
+                writeUint8(uint8.MAX);
                 skippedPixels -= uint8.MAX;
             }
-            write(uint8.encode(skippedPixels));
+            writeUint8(skippedPixels);
         }
 
+        /**
+         * Analyze every frame together, so the color index covers the whole sequence and {@link #tryRLE()} and
+         * {@link #tryIndexed()} can be called in either order
+         */
         @Override
-        public boolean tryIndexed() {
-            lastColorIndex = 0;
-            for (FrameBuffer frameBuffer1 : frameBuffers) {
-                if (!tryIndexed(frameBuffer1)) {
-                    return false;
-                }
+        protected void analyze() {
+            if (analyzed)
+                return;
+            beginAnalysis();
+            for (FrameBuffer frame : frameBuffers) {
+                analyzeFrame(frame);
             }
-            indexed = true;
-            return true;
         }
 
         @Override
@@ -59,12 +62,12 @@ public class FrameBufferBinarySequence extends FrameBufferBinary {
         }
 
         @Override
-        public byte[] encode() {
-            binary.clear();
+        public void encode(ByteBuf out) {
+            begin(out);
 
             writeHeader(FBB_TYPE_STRING);
 
-            write(uint16.encode(frameBuffers.length), pointer()-2); // have to back-step to write it in the normal padding
+            writeUint16(frameBuffers.length, pointer()-2); // have to back-step to write it in the normal padding
 
             // Start of header tables
             if (indexed) {
@@ -73,15 +76,15 @@ public class FrameBufferBinarySequence extends FrameBufferBinary {
             write(HEADER_TABLE_ENTRY_LAST);
 
             // start of data section
-            write(uint32.encode(pointer()), 0x4); // write data section pointer in header
+            writeUint32(pointer(), 0x4); // write data section pointer in header
 
             int numFramesPointer = pointer();
 
-            write(uint16.encode(0)); // leaving space for num frames defined
+            writeUint16(0); // leaving space for num frames defined
 
             int numFrames = 0;
 
-            write(new byte[2]); // padding
+            writeUint16(0); // padding
 
             int repeatedFrames = 0;
             int repeatedFramesPointer = -1;
@@ -91,18 +94,18 @@ public class FrameBufferBinarySequence extends FrameBufferBinary {
                     repeatedFrames++;
                     continue;
                 } else if (repeatedFrames > 0) {
-                    write(uint8.encode(repeatedFrames), repeatedFramesPointer);
+                    write((byte) repeatedFrames, repeatedFramesPointer);
                     repeatedFrames = 0;
                 }
                 numFrames++;
 
                 int frameStart = pointer();
-                write(uint32.encode(0)); // leaving space for frame length value;
+                writeUint32(0); // leaving space for frame length value;
 
-                write(uint16.encode(fN)); // Frame number
+                writeUint16(fN); // Frame number
 
                 repeatedFramesPointer = pointer();
-                write(uint8.encode(0)); // Frame repetitions (we may overwrite this later)
+                writeUint8(0); // Frame repetitions (we may overwrite this later)
 
                 if (fN == 0) // mark the first frame as a keyframe so we don't need to constantly say we skipped 0 bytes
                     write(FRAME_TYPE_KEYFRAME);
@@ -168,12 +171,10 @@ public class FrameBufferBinarySequence extends FrameBufferBinary {
                 }
 
                 int frameLength = pointer() - frameStart;
-                write(uint32.encode(frameLength), frameStart); // write the frame length
+                writeUint32(frameLength, frameStart); // write the frame length
             }
 
-            write(uint16.encode(numFrames), numFramesPointer); // write the number of frames we actually defined
-
-            return ArrayUtils.toPrimitive(binary.toArray(Byte[]::new));
+            writeUint16(numFrames, numFramesPointer); // write the number of frames we actually defined
         }
     }
 
@@ -217,10 +218,8 @@ public class FrameBufferBinarySequence extends FrameBufferBinary {
         }
 
         @Override
-        public FrameBuffer decode(byte[] bytes) throws IOException {
-            this.binary = bytes;
-
-            pointer = 0;
+        public FrameBuffer decode(ByteBuf buf) throws IOException {
+            begin(buf);
 
             readHeader(FBS_TYPE_STRING);
 
@@ -300,8 +299,7 @@ public class FrameBufferBinarySequence extends FrameBufferBinary {
          * @throws IOException
          */
         public ArrayList<FrameBuffer> decodeChunk(byte[] chunk) throws IOException {
-            this.binary = chunk;
-            pointer = 0;
+            begin(Unpooled.wrappedBuffer(chunk));
 
             ArrayList<FrameBuffer> frames = new ArrayList<>();
 
@@ -321,7 +319,7 @@ public class FrameBufferBinarySequence extends FrameBufferBinary {
                 pointer += 4; // Padding + Num frames defined. Unused for stream
             }
 
-            while (pointer < binary.length) {
+            while (pointer < end) {
                 int frameStart = pointer;
                 int frameLength = (int) readUint32().value;
 
@@ -378,7 +376,7 @@ public class FrameBufferBinarySequence extends FrameBufferBinary {
         }
 
         @Override
-        public FrameBuffer decode(byte[] bytes) throws IOException {
+        public FrameBuffer decode(ByteBuf buf) throws IOException {
             throw new UnsupportedOperationException(
                     "Stream Decoded does not support `decode`. See `decodeChunk` instead");
         }
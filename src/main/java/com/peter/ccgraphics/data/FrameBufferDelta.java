@@ -0,0 +1,278 @@
+package com.peter.ccgraphics.data;
+
+import java.util.Arrays;
+
+import com.peter.ccgraphics.lua.ArrayFrameBuffer;
+import com.peter.ccgraphics.lua.FrameBuffer;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Difference between two frames of the same size, stored as spans of changed pixels.<br/>
+ * <br/>
+ * Like the "change only" frames of {@link FrameBufferBinarySequence}, unchanged pixels are skipped. Each span is a
+ * number of skipped pixels followed by a run of changed pixels that all share one color. Colors are compared and
+ * sent as opaque RGB.
+ * <h4>Encoding:</h4>
+ * <ul>
+ *  <li> <code>uint16</code> - Width </li>
+ *  <li> <code>uint16</code> - Height </li>
+ *  <li> <code>uint32</code> - Number of spans </li>
+ *  <li> Span (repeated): <code>uint7/15</code>... skipped pixels, <code>uint7/15</code>... run length, <code>RGB8</code> color </li>
+ * </ul>
+ * Skip and run lengths are continued while the previous value was <code>0x7fff</code>, as in RLE 7/15b mode.
+ */
+public class FrameBufferDelta {
+
+    /** Number of pixels compared at a time for frames that are not array backed */
+    private static final int CHUNK_SIZE = 4096;
+
+    private final int width;
+    private final int height;
+
+    /** Spans as (skipped pixels, run length, color) triples */
+    private int[] spans;
+    private int spanCount = 0;
+    /** Pixels covered by the spans, skipped or changed */
+    private long covered = 0;
+
+    private FrameBufferDelta(int width, int height, int expectedSpans) {
+        this.width = width;
+        this.height = height;
+        spans = new int[Math.max(expectedSpans, 4) * 3];
+    }
+
+    /**
+     * Calculate the changes needed to turn <code>from</code> into <code>to</code>
+     * @param from Frame the receiver already has
+     * @param to   New frame
+     * @return Delta between the frames
+     * @throws IllegalArgumentException If the frames are different sizes
+     */
+    public static FrameBufferDelta between(FrameBuffer from, FrameBuffer to) {
+        return between(from, to, 0, to.getLength());
+    }
+
+    /**
+     * Calculate the changes needed to turn <code>from</code> into <code>to</code>, when only a range of pixels may
+     * differ. Pixels outside the range are not compared
+     * @param from  Frame the receiver already has
+     * @param to    New frame
+     * @param start Index of the first pixel that may have changed
+     * @param end   Index after the last pixel that may have changed
+     * @return Delta between the frames
+     * @throws IllegalArgumentException If the frames are different sizes, or the range is outside them
+     */
+    public static FrameBufferDelta between(FrameBuffer from, FrameBuffer to, int start, int end) {
+        if (from.getWidth() != to.getWidth() || from.getHeight() != to.getHeight())
+            throw new IllegalArgumentException("Frames must be the same size to compute a delta");
+        if (start < 0 || end > to.getLength() || start > end)
+            throw new IllegalArgumentException("Range must be within the frames");
+
+        FrameBufferDelta delta = new FrameBufferDelta(to.getWidth(), to.getHeight(), 16);
+        // Array frames are compared in place, anything else is read a chunk at a time
+        boolean arrays = from instanceof ArrayFrameBuffer && to instanceof ArrayFrameBuffer;
+        int chunk = arrays ? end - start : Math.min(end - start, CHUNK_SIZE);
+        int[] fromPixels = arrays ? ((ArrayFrameBuffer) from).getBuffer() : new int[chunk];
+        int[] toPixels = arrays ? ((ArrayFrameBuffer) to).getBuffer() : new int[chunk];
+
+        int skipped = start;
+        int runLength = 0;
+        int runColor = 0;
+        for (int base = start; base < end; base += chunk) {
+            int count = Math.min(chunk, end - base);
+            int offset = base;
+            if (!arrays) {
+                from.readPixels(base, fromPixels, 0, count);
+                to.readPixels(base, toPixels, 0, count);
+                offset = 0;
+            }
+            for (int i = offset; i < offset + count; i++) {
+                int color = toPixels[i] & 0x00ffffff;
+                if (((color ^ fromPixels[i]) & 0x00ffffff) == 0) {
+                    if (runLength > 0) {
+                        delta.addSpan(skipped, runLength, runColor);
+                        skipped = 0;
+                        runLength = 0;
+                    }
+                    skipped++;
+                } else if (runLength > 0 && color == runColor) {
+                    runLength++;
+                } else {
+                    if (runLength > 0) {
+                        delta.addSpan(skipped, runLength, runColor);
+                        skipped = 0;
+                    }
+                    runColor = color;
+                    runLength = 1;
+                }
+            }
+        }
+        if (runLength > 0)
+            delta.addSpan(skipped, runLength, runColor);
+        return delta;
+    }
+
+    private void addSpan(int skip, int length, int color) {
+        if (spanCount * 3 == spans.length)
+            spans = Arrays.copyOf(spans, spans.length * 2);
+        spans[spanCount * 3] = skip;
+        spans[spanCount * 3 + 1] = length;
+        spans[spanCount * 3 + 2] = color;
+        spanCount++;
+        covered += (long) skip + length;
+    }
+
+    /**
+     * Get the number of changed spans
+     * @return Number of spans
+     */
+    public int getSpanCount() {
+        return spanCount;
+    }
+
+    /**
+     * Check if the frames were identical
+     * @return If there were no changes
+     */
+    public boolean isEmpty() {
+        return spanCount == 0;
+    }
+
+    /**
+     * Get the number of bytes {@link #encode} will write
+     * @return Encoded size in bytes
+     */
+    public int getEncodedSize() {
+        int size = 8;
+        for (int s = 0; s < spanCount; s++) {
+            size += varSize(spans[s * 3]) + varSize(spans[s * 3 + 1]) + 3;
+        }
+        return size;
+    }
+
+    /**
+     * Apply the changes to a frame in place
+     * @param frame Frame to update. Should be the frame this delta was calculated from
+     * @return If the delta could be applied. <code>false</code> if the frame was the wrong size, in which case the
+     *         frame is not changed
+     */
+    public boolean applyTo(FrameBuffer frame) {
+        if (frame.getWidth() != width || frame.getHeight() != height || covered > (long) width * height)
+            return false;
+        int[] pixels = frame instanceof ArrayFrameBuffer arrayFrame ? arrayFrame.getBuffer() : null;
+        int pixelIndex = 0;
+        for (int s = 0; s < spanCount; s++) {
+            pixelIndex += spans[s * 3];
+            int end = pixelIndex + spans[s * 3 + 1];
+            int color = 0xff000000 | spans[s * 3 + 2];
+            if (pixels != null) {
+                Arrays.fill(pixels, pixelIndex, end, color);
+                frame.markModified(pixelIndex, end - pixelIndex);
+            } else {
+                for (int i = pixelIndex; i < end; i++) {
+                    frame.setColorIndexed(i, color);
+                }
+            }
+            pixelIndex = end;
+        }
+        return true;
+    }
+
+    /**
+     * Encode the delta for network transmission
+     * @param buf Buffer to write to
+     */
+    public void encode(ByteBuf buf) {
+        buf.writeShort(width);
+        buf.writeShort(height);
+        buf.writeInt(spanCount);
+        for (int s = 0; s < spanCount; s++) {
+            writeVar(buf, spans[s * 3]);
+            writeVar(buf, spans[s * 3 + 1]);
+            buf.writeMedium(spans[s * 3 + 2]);
+        }
+    }
+
+    /**
+     * Decode a delta from network transmission
+     * @param buf Buffer to read from
+     * @return Decoded delta
+     * @throws IndexOutOfBoundsException If the delta was malformed, such as its spans extending outside the frame
+     */
+    public static FrameBufferDelta decode(ByteBuf buf) {
+        int width = buf.readUnsignedShort();
+        int height = buf.readUnsignedShort();
+        long pixels = (long) width * height;
+        int spanCount = buf.readInt();
+        if (spanCount < 0 || spanCount > pixels)
+            throw new IndexOutOfBoundsException("Invalid number of spans in frame delta: " + spanCount);
+        FrameBufferDelta delta = new FrameBufferDelta(width, height, spanCount);
+        for (int s = 0; s < spanCount; s++) {
+            // Checked as they are read, so a bad delta is rejected before any frame is touched
+            long skip = readVar(buf, pixels - delta.covered);
+            long length = readVar(buf, pixels - delta.covered - skip);
+            delta.addSpan((int) skip, (int) length, buf.readUnsignedMedium());
+        }
+        return delta;
+    }
+
+    private static int varSize(int value) {
+        int bytes = (value / Uint7_15.MAX) * 2;
+        value %= Uint7_15.MAX;
+        return bytes + ((value <= Uint7_15.MAX_7) ? 1 : 2);
+    }
+
+    private static void writeVar(ByteBuf buf, int value) {
+        while (value >= Uint7_15.MAX) {
+            writeUint7_15(buf, Uint7_15.MAX);
+            value -= Uint7_15.MAX;
+        }
+        writeUint7_15(buf, value);
+    }
+
+    private static void writeUint7_15(ByteBuf buf, int value) {
+        if (value <= Uint7_15.MAX_7) {
+            buf.writeByte(value);
+        } else {
+            buf.writeByte(Uint7_15.MASK | (value >> 8));
+            buf.writeByte(value);
+        }
+    }
+
+    /**
+     * Read a continued length
+     * @param max Largest value allowed
+     * @throws IndexOutOfBoundsException If the value was larger than <code>max</code>
+     */
+    private static long readVar(ByteBuf buf, long max) {
+        long value = 0;
+        int v = readUint7_15(buf);
+        while (v == Uint7_15.MAX) {
+            value += v;
+            if (value > max)
+                throw new IndexOutOfBoundsException("Frame delta extended outside frame");
+            v = readUint7_15(buf);
+        }
+        value += v;
+        if (value > max)
+            throw new IndexOutOfBoundsException("Frame delta extended outside frame");
+        return value;
+    }
+
+    private static int readUint7_15(ByteBuf buf) {
+        int v = buf.readUnsignedByte();
+        if ((v & Uint7_15.MASK) == Uint7_15.MASK) {
+            v = ((v & 0x7f) << 8) | buf.readUnsignedByte();
+        }
+        return v;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,112 @@
+package com.peter.ccgraphics.data;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.peter.ccgraphics.lua.ArrayFrameBuffer;
+import com.peter.ccgraphics.lua.FrameBuffer;
+import com.peter.ccgraphics.lua.SwapChain;
+
+/**
+ * Lock-free single slot for handing the latest frame from one producer (a Lua computer) to one consumer (the server
+ * tick).<br/>
+ * <br/>
+ * The producer's frame is copied into a snapshot when published, so it can keep drawing into it. A frame that is
+ * replaced before the consumer takes it was never seen by anyone else, so it becomes the next spare instead of being
+ * reallocated. Frames presented from a {@link SwapChain} skip the copy, and go back to their chain if replaced.<br/>
+ * <br/>
+ * Taken frames belong to the consumer, and are never written again until the consumer gives them back with
+ * {@link #recycle}. Snapshots then become the producer's next spare, and presented frames go back to their chain.
+ * Frames the consumer keeps are simply not recycled, and the producer allocates a new snapshot in their place.
+ */
+public class FrameMailbox {
+
+    /**
+     * A published frame, and the swap chain it came from if it was presented rather than copied
+     */
+    private record Slot(FrameBuffer frame, SwapChain chain) {
+    }
+
+    private final AtomicReference<Slot> latest = new AtomicReference<>();
+    /** Only touched by the producer */
+    private ArrayFrameBuffer spare = null;
+    /** Snapshot given back by the consumer, picked up by the producer when it has no spare */
+    private final AtomicReference<ArrayFrameBuffer> recycled = new AtomicReference<>();
+
+    /** Only touched by the consumer: the slots of the last two frames taken, which may be recycled */
+    private Slot taken = null;
+    private Slot previous = null;
+
+    /**
+     * Publish a snapshot of a frame, replacing any frame not yet taken. Must only be called from one thread at a time
+     * @param frame Frame to publish. Copied, so it can be reused afterwards
+     */
+    public void publish(FrameBuffer frame) {
+        ArrayFrameBuffer snapshot = spare;
+        spare = null;
+        if (snapshot == null)
+            snapshot = recycled.getAndSet(null);
+        if (snapshot == null || snapshot.getWidth() != frame.getWidth() || snapshot.getHeight() != frame.getHeight())
+            snapshot = new ArrayFrameBuffer(frame.getWidth(), frame.getHeight());
+        frame.readPixels(0, snapshot.getBuffer(), 0, frame.getLength());
+        // A recycled frame may have a cached encoding of its old pixels
+        snapshot.markModified(0, frame.getLength());
+        replace(new Slot(snapshot, null));
+    }
+
+    /**
+     * Publish a frame from a swap chain without copying it, replacing any frame not yet taken. Must only be called
+     * from the same thread as {@link #publish}
+     * @param frame Frame to publish. Owned by the mailbox from here on
+     * @param chain Chain the frame is returned to if it is replaced before being taken
+     */
+    public void present(ArrayFrameBuffer frame, SwapChain chain) {
+        replace(new Slot(frame, chain));
+    }
+
+    private void replace(Slot slot) {
+        Slot superseded = latest.getAndSet(slot);
+        if (superseded == null)
+            return;
+        if (superseded.chain() != null)
+            superseded.chain().release((ArrayFrameBuffer) superseded.frame());
+        else
+            spare = (ArrayFrameBuffer) superseded.frame();
+    }
+
+    /**
+     * Take the latest published frame. Must only be called from one thread at a time
+     * @return The frame published since the last call, or <code>null</code> if there was none. Not modified until it
+     *         is given back with {@link #recycle}
+     */
+    public FrameBuffer take() {
+        Slot slot = latest.getAndSet(null);
+        if (slot == null)
+            return null;
+        previous = taken;
+        taken = slot;
+        return slot.frame();
+    }
+
+    /**
+     * Give back a frame the consumer no longer needs, so it can be reused. Only the last two frames taken can be
+     * recycled, anything else is ignored. Must only be called from the same thread as {@link #take}
+     * @param frame Frame returned by {@link #take}. Must not be used by the consumer afterwards, and nothing may still
+     *              need to read its pixels
+     */
+    public void recycle(FrameBuffer frame) {
+        Slot slot;
+        if (taken != null && taken.frame() == frame) {
+            slot = taken;
+            taken = null;
+        } else if (previous != null && previous.frame() == frame) {
+            slot = previous;
+            previous = null;
+        } else {
+            return;
+        }
+        if (slot.chain() != null)
+            slot.chain().release((ArrayFrameBuffer) frame);
+        else
+            recycled.set((ArrayFrameBuffer) frame);
+    }
+}
@@ -0,0 +1,130 @@
+package com.peter.ccgraphics.data;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from <code>int</code> to <code>int</code>.<br/>
+ * <br/>
+ * Used by the frame buffer encoders to index colors without boxing every pixel.
+ */
+public class IntIntMap {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int mask;
+    private int size = 0;
+    private int resizeAt;
+
+    /**
+     * Create a new map with a default capacity
+     */
+    public IntIntMap() {
+        this(64);
+    }
+
+    /**
+     * Create a new map
+     * @param expectedSize Number of entries the map should hold before growing
+     */
+    public IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Get the value for a key
+     * @param key Key to look up
+     * @param def Value to return if the key is not present
+     * @return Value for the key, or <code>def</code> if not present
+     */
+    public int get(int key, int def) {
+        int i = slot(key);
+        while (used[i]) {
+            if (keys[i] == key)
+                return values[i];
+            i = (i + 1) & mask;
+        }
+        return def;
+    }
+
+    /**
+     * Check if the map contains a key
+     * @param key Key to check for
+     * @return If the key was present
+     */
+    public boolean containsKey(int key) {
+        int i = slot(key);
+        while (used[i]) {
+            if (keys[i] == key)
+                return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Set the value for a key, replacing any previous value
+     * @param key Key to set
+     * @param value Value to set
+     */
+    public void put(int key, int value) {
+        int i = slot(key);
+        while (used[i]) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        if (size > resizeAt)
+            grow();
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(keys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i])
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    /**
+     * Remove all entries, keeping the current capacity
+     */
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    /**
+     * Get the number of entries in the map
+     * @return Number of entries
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -1,9 +1,11 @@
 package com.peter.ccgraphics.font;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import com.peter.ccgraphics.font.LuaFont.CharData;
+import com.peter.ccgraphics.lua.ArrayFrameBuffer;
 import com.peter.ccgraphics.lua.FrameBuffer;
 
 import dan200.computercraft.api.lua.LuaFunction;
@@ -17,6 +19,12 @@ public class CharacterGlyph extends FrameBuffer {
     private final byte[] glyph;
     protected final int color;
 
+    /** Runs of filled pixels as (x, y, length) triples, shared by every colored copy of this glyph */
+    private int[] spans = new int[0];
+    /** Width & height of the area covered by filled pixels */
+    private int filledWidth = 0;
+    private int filledHeight = 0;
+
     protected CharacterGlyph(LuaFont font, CharData data) {
         super(data.width, data.height);
         this.font = font;
@@ -25,12 +33,15 @@ public class CharacterGlyph extends FrameBuffer {
         this.color = 0xffffffff;
     }
 
-    private CharacterGlyph(byte[] glyph, LuaFont font, CharData data, int color) {
-        super(data.width, data.height);
-        this.font = font;
-        this.data = data;
-        this.glyph = glyph;
+    private CharacterGlyph(CharacterGlyph glyph, int color) {
+        super(glyph.width, glyph.height);
+        this.font = glyph.font;
+        this.data = glyph.data;
+        this.glyph = glyph.glyph;
         this.color = color;
+        this.spans = glyph.spans;
+        this.filledWidth = glyph.filledWidth;
+        this.filledHeight = glyph.filledHeight;
     }
 
     @Override
@@ -52,6 +63,70 @@ public class CharacterGlyph extends FrameBuffer {
         glyph[bI] |= (byte) (0b1 << (pI % 8));
     }
 
+    /**
+     * Split the filled pixels into runs for {@link #drawTo}. Must be called once all pixels have been set
+     */
+    protected void buildSpans() {
+        int[] spans = new int[12];
+        int count = 0;
+        filledWidth = 0;
+        filledHeight = 0;
+        for (int y = 0; y < height; y++) {
+            int x = 0;
+            while (x < width) {
+                if (!isFilled(x + y * width)) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                while (x < width && isFilled(x + y * width))
+                    x++;
+                if (count + 3 > spans.length)
+                    spans = Arrays.copyOf(spans, spans.length * 2);
+                spans[count++] = start;
+                spans[count++] = y;
+                spans[count++] = x - start;
+                filledWidth = Math.max(filledWidth, x);
+                filledHeight = y + 1;
+            }
+        }
+        this.spans = Arrays.copyOf(spans, count);
+    }
+
+    /**
+     * Draw this glyph onto a frame in a single color, without making a colored copy.<br/>
+     * <br/>
+     * Only filled pixels are drawn, as for {@link FrameBuffer#drawBufferMasked}. Array backed frames are filled a run
+     * at a time.
+     * @param frame Frame to draw onto
+     * @param x     X position on the frame of the top left of the glyph
+     * @param y     Y position on the frame of the top left of the glyph
+     * @param color Color to draw the glyph in. ARGB 8b each, nothing is drawn if the alpha is 0
+     * @throws ArrayIndexOutOfBoundsException If any filled pixel would be outside the frame
+     */
+    public void drawTo(FrameBuffer frame, int x, int y, int color) {
+        frame.assertInFrame(x, y);
+        if (x + filledWidth > frame.getWidth() || y + filledHeight > frame.getHeight())
+            throw new ArrayIndexOutOfBoundsException("Glyph must fit between (x, y) and (width, height)");
+        if ((color >>> 24) == 0 || spans.length == 0)
+            return;
+        if (frame instanceof ArrayFrameBuffer arrayFrame) {
+            int[] pixels = arrayFrame.getBuffer();
+            int frameWidth = frame.getWidth();
+            for (int s = 0; s < spans.length; s += 3) {
+                int index = x + spans[s] + (y + spans[s + 1]) * frameWidth;
+                Arrays.fill(pixels, index, index + spans[s + 2], color);
+            }
+            frame.markDamaged(x, y, filledWidth, filledHeight);
+        } else {
+            for (int s = 0; s < spans.length; s += 3) {
+                for (int i = 0; i < spans[s + 2]; i++) {
+                    frame.setPixel(x + spans[s] + i, y + spans[s + 1], color);
+                }
+            }
+        }
+    }
+
     @Override
     public int getPixel(int x, int y) {
         if (!inFrame(x, y))
@@ -73,7 +148,7 @@ public class CharacterGlyph extends FrameBuffer {
 
     @Override
     public CharacterGlyph copy() {
-        return new CharacterGlyph(glyph, font, data, color);
+        return new CharacterGlyph(this, color);
     }
 
     @Override
@@ -106,7 +181,7 @@ public class CharacterGlyph extends FrameBuffer {
 
     @LuaFunction
     public final CharacterGlyph colored(int color) {
-        return new CharacterGlyph(glyph, font, data, color);
+        return new CharacterGlyph(this, color);
     }
 
 }
@@ -197,6 +197,7 @@ public class LuaFont {
                     if(bytes[data.loc + i] != 0)
                         glyph.setPixel(x, y);
                 }
+                glyph.buildSpans();
                 chars.put(data.c, glyph);
             }
         } else if (characterFile.endsWith(".png")) {
@@ -212,6 +213,7 @@ public class LuaFont {
                             glyph.setPixel(x, y);
                     }
                 }
+                glyph.buildSpans();
                 chars.put(data.c, glyph);
             }
         }
@@ -242,13 +244,26 @@ public class LuaFont {
      * @return Character glyph
      */
     public CharacterGlyph getChar(char c) {
+        return getGlyph(c).copy();
+    }
+
+    /**
+     * Get the shared glyph for the specified character in this font, without copying it. For drawing with
+     * {@link CharacterGlyph#drawTo}; the glyph must not be handed out to Lua.
+     * <br/><br/>
+     * If character was not found it this font, returns the glyph for <code>u0000</code>
+     * @param c Character to get the glyph for
+     * @return Character glyph
+     */
+    public CharacterGlyph getGlyph(char c) {
         if (upper)
-            c = ("" + c).toUpperCase().charAt(0);
-        if (!chars.containsKey(c)) {
+            c = Character.toUpperCase(c);
+        CharacterGlyph glyph = chars.get(c);
+        if (glyph == null) {
             // CCGraphics.LOGGER.warn("Unknown missing glyph for character `{}`: \\u{}", c, (int)c);
-            return chars.get(MISSING_CHAR).copy();
+            return chars.get(MISSING_CHAR);
         }
-        return chars.get(c).copy();
+        return glyph;
     }
 
     /**
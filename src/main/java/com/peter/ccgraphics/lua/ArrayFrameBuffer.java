@@ -1,5 +1,6 @@
 package com.peter.ccgraphics.lua;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -26,6 +27,15 @@ public class ArrayFrameBuffer extends FrameBuffer {
         buffer = new int[width * height];
     }
 
+    /**
+     * Get the backing array of this frame. Changes to the array are reflected in the frame,
+     * but are not tracked; use {@link #markModified(int, int)} or {@link #markDamaged} after writing
+     * @return Pixels stored as ARGB 8-bit each, row by row
+     */
+    public int[] getBuffer() {
+        return buffer;
+    }
+
     private int xyToIndex(int x, int y) {
         return x + (y * width);
     }
@@ -34,11 +44,13 @@ public class ArrayFrameBuffer extends FrameBuffer {
     public void setPixel(int x, int y, int color) {
         assertInFrame(x, y);
         buffer[xyToIndex(x, y)] = color;
+        markPixelModified(x, y);
     }
 
     @Override
     public void setColorIndexed(int index, int color) {
         buffer[index] = color;
+        markModified(index, 1);
     }
 
     @Override
@@ -52,6 +64,165 @@ public class ArrayFrameBuffer extends FrameBuffer {
         return buffer[index];
     }
 
+    @Override
+    public void drawBox(int x, int y, int w, int h, int color) {
+        assertInFrame(x, y);
+        if (x + w > width || y + h > height)
+            throw new ArrayIndexOutOfBoundsException("(w, h) must be between (0, 0) & (width-x, height-y) inclusive, was ("+w+","+h+")");
+        if (w <= 0 || h <= 0)
+            return;
+
+        int top = xyToIndex(x, y);
+        Arrays.fill(buffer, top, top + w, color);
+        markDamaged(x, y, w, 1);
+        if (h == 1)
+            return;
+        int bottom = xyToIndex(x, y + h - 1);
+        Arrays.fill(buffer, bottom, bottom + w, color);
+        markDamaged(x, y + h - 1, w, 1);
+        for (int i = top + width; i < bottom; i += width) {
+            buffer[i] = color;
+            buffer[i + w - 1] = color;
+        }
+        if (h > 2) {
+            markDamaged(x, y + 1, 1, h - 2);
+            markDamaged(x + w - 1, y + 1, 1, h - 2);
+        }
+    }
+
+    @Override
+    public void drawBoxFilled(int x, int y, int w, int h, int color) {
+        assertInFrame(x, y);
+        if (x + w > width || y + h > height)
+            throw new ArrayIndexOutOfBoundsException(
+                    "(w, h) must be between (0, 0) & (width-x, height-y) inclusive, was (" + w + "," + h + "); x,y=("+x+","+y+") w,h=("+width+","+height+") ("+(width-x)+","+(height-y)+")");
+        if (w <= 0 || h <= 0)
+            return;
+
+        if (x == 0 && w == width) {
+            // Whole rows are contiguous
+            Arrays.fill(buffer, xyToIndex(0, y), xyToIndex(0, y + h), color);
+        } else {
+            for (int i = xyToIndex(x, y), end = xyToIndex(x, y + h); i < end; i += width) {
+                Arrays.fill(buffer, i, i + w, color);
+            }
+        }
+        markDamaged(x, y, w, h);
+    }
+
+    /**
+     * Check the bounds of a blit from <code>buffer2</code>, as {@link FrameBuffer#drawBuffer} does
+     * @throws ArrayIndexOutOfBoundsException If either area extends outside its frame
+     */
+    private void checkBlit(int x, int y, FrameBuffer buffer2, int xOff, int yOff, int w, int h) {
+        assertInFrame(x, y);
+        if (xOff < 0 || yOff < 0 || xOff >= buffer2.width || yOff >= buffer2.height)
+            throw new ArrayIndexOutOfBoundsException(
+                    "Point (xOff, yOff) must be between (0, 0) and (buffer2.width-1, buffer2.height-1)");
+        if (w < 0 || xOff + w > buffer2.width)
+            throw new ArrayIndexOutOfBoundsException("Width must be between 0 and buffer2.width-xOff");
+        if (h < 0 || yOff + h > buffer2.height)
+            throw new ArrayIndexOutOfBoundsException("Height must be between 0 and buffer2.height-yOff");
+        if (x + w > width || y + h > height)
+            throw new ArrayIndexOutOfBoundsException("Draw area must fit between (x, y) and (width, height)");
+    }
+
+    @Override
+    public void drawBuffer(int x, int y, FrameBuffer buffer2, int xOff, int yOff, int w, int h) {
+        checkBlit(x, y, buffer2, xOff, yOff, w, h);
+        if (w == 0 || h == 0)
+            return;
+
+        // Copying onto ourselves further down would overwrite rows before they are read, so go bottom up
+        boolean reverse = buffer2 == this && y > yOff;
+        int step = reverse ? -1 : 1;
+        for (int n = 0, j = reverse ? h - 1 : 0; n < h; n++, j += step) {
+            buffer2.readPixels(xOff + (yOff + j) * buffer2.width, buffer, xyToIndex(x, y + j), w);
+        }
+        markDamaged(x, y, w, h);
+    }
+
+    @Override
+    public void drawBufferMasked(int x, int y, FrameBuffer buffer2, int xOff, int yOff, int w, int h) {
+        checkBlit(x, y, buffer2, xOff, yOff, w, h);
+        if (w == 0 || h == 0)
+            return;
+
+        // Other frames, and overlapping copies from this one, are read a row at a time
+        int[] src = buffer2 instanceof ArrayFrameBuffer arrayFrame && arrayFrame != this ? arrayFrame.buffer : null;
+        int[] row = src == null ? new int[w] : null;
+        boolean reverse = buffer2 == this && y > yOff;
+        int step = reverse ? -1 : 1;
+        for (int n = 0, j = reverse ? h - 1 : 0; n < h; n++, j += step) {
+            int s = xOff + (yOff + j) * buffer2.width;
+            int[] srcRow = src;
+            if (src == null) {
+                buffer2.readPixels(s, row, 0, w);
+                srcRow = row;
+                s = 0;
+            }
+            int d = xyToIndex(x, y + j);
+            for (int i = 0; i < w; i++) {
+                int color = srcRow[s + i];
+                if ((color & 0xff000000) != 0)
+                    buffer[d + i] = color;
+            }
+        }
+        markDamaged(x, y, w, h);
+    }
+
+    @Override
+    protected void blendBuffer(int x, int y, FrameBuffer buffer2, int xOff, int yOff, int w, int h, BlendMode mode,
+            int opacity) {
+        // As for masked blits, other frames and overlapping copies from this one are read a row at a time
+        int[] src = buffer2 instanceof ArrayFrameBuffer arrayFrame && arrayFrame != this ? arrayFrame.buffer : null;
+        int[] row = src == null ? new int[w] : null;
+        boolean reverse = buffer2 == this && y > yOff;
+        int step = reverse ? -1 : 1;
+        for (int n = 0, j = reverse ? h - 1 : 0; n < h; n++, j += step) {
+            int s = xOff + (yOff + j) * buffer2.width;
+            int[] srcRow = src;
+            if (src == null) {
+                buffer2.readPixels(s, row, 0, w);
+                srcRow = row;
+                s = 0;
+            }
+            int d = xyToIndex(x, y + j);
+            switch (mode) {
+                case OVER -> {
+                    for (int i = 0; i < w; i++) {
+                        int color = srcRow[s + i];
+                        int alpha = BlendMode.weight(color, opacity);
+                        if (alpha > 0)
+                            buffer[d + i] = BlendMode.over(buffer[d + i], color, alpha);
+                    }
+                }
+                case ADD -> {
+                    for (int i = 0; i < w; i++) {
+                        int color = srcRow[s + i];
+                        int alpha = BlendMode.weight(color, opacity);
+                        if (alpha > 0)
+                            buffer[d + i] = BlendMode.add(buffer[d + i], color, alpha);
+                    }
+                }
+                case MULTIPLY -> {
+                    for (int i = 0; i < w; i++) {
+                        int color = srcRow[s + i];
+                        int alpha = BlendMode.weight(color, opacity);
+                        if (alpha > 0)
+                            buffer[d + i] = BlendMode.multiply(buffer[d + i], color, alpha);
+                    }
+                }
+            }
+        }
+        markDamaged(x, y, w, h);
+    }
+
+    @Override
+    public void readPixels(int index, int[] dest, int destIndex, int length) {
+        System.arraycopy(buffer, index, dest, destIndex, length);
+    }
+
     @Override
     protected void encodePixels(ByteBuf buf) {
         for (int i = 0; i < buffer.length; i++) {
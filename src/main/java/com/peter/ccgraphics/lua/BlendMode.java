@@ -0,0 +1,105 @@
+package com.peter.ccgraphics.lua;
+
+/**
+ * How {@link FrameBuffer#drawBufferBlended} combines source pixels with the pixels already in the frame.<br/>
+ * <br/>
+ * Every mode is weighted by the source alpha times the blit's opacity, so a source alpha of 0 never changes the frame.
+ * The result keeps the destination alpha combined with the source's as for {@link #OVER}.
+ */
+public enum BlendMode {
+    /** Source drawn over the frame, the usual alpha compositing */
+    OVER("over"),
+    /** Source colors added to the frame, clamped at full brightness */
+    ADD("add"),
+    /** Source colors multiplied with the frame, darkening it */
+    MULTIPLY("multiply");
+
+    private final String name;
+
+    BlendMode(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get the name of this mode as used from Lua
+     * @return Mode name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get a mode by its Lua name
+     * @param name Name of the mode
+     * @return Blend mode
+     * @throws IllegalArgumentException If there was no mode by that name
+     */
+    public static BlendMode fromName(String name) {
+        for (BlendMode mode : values()) {
+            if (mode.name.equals(name))
+                return mode;
+        }
+        throw new IllegalArgumentException("Unknown blend mode `" + name + "`, must be one of over, add, or multiply");
+    }
+
+    /**
+     * Blend one pixel
+     * @param dst   Pixel in the frame. ARGB 8b each
+     * @param src   Pixel being drawn. ARGB 8b each
+     * @param alpha Weight of the source, usually its alpha times the opacity. 0-255
+     * @return Blended pixel
+     */
+    public int blend(int dst, int src, int alpha) {
+        return switch (this) {
+            case OVER -> over(dst, src, alpha);
+            case ADD -> add(dst, src, alpha);
+            case MULTIPLY -> multiply(dst, src, alpha);
+        };
+    }
+
+    /**
+     * Get the weight of a source pixel
+     * @param src     Source pixel. ARGB 8b each
+     * @param opacity Opacity of the whole blit. 0-255
+     * @return Source alpha scaled by the opacity. 0-255
+     */
+    static int weight(int src, int opacity) {
+        return div255((src >>> 24) * opacity);
+    }
+
+    /** Divide a product of two 0-255 values by 255, rounded */
+    static int div255(int v) {
+        v += 128;
+        return (v + (v >> 8)) >> 8;
+    }
+
+    private static int alpha(int dst, int alpha) {
+        return alpha + div255((dst >>> 24) * (255 - alpha));
+    }
+
+    static int over(int dst, int src, int alpha) {
+        if (alpha == 255)
+            return src | 0xff000000;
+        int inv = 255 - alpha;
+        int r = div255(((src >> 16) & 0xff) * alpha + ((dst >> 16) & 0xff) * inv);
+        int g = div255(((src >> 8) & 0xff) * alpha + ((dst >> 8) & 0xff) * inv);
+        int b = div255((src & 0xff) * alpha + (dst & 0xff) * inv);
+        return (alpha(dst, alpha) << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    static int add(int dst, int src, int alpha) {
+        int r = Math.min(255, ((dst >> 16) & 0xff) + div255(((src >> 16) & 0xff) * alpha));
+        int g = Math.min(255, ((dst >> 8) & 0xff) + div255(((src >> 8) & 0xff) * alpha));
+        int b = Math.min(255, (dst & 0xff) + div255((src & 0xff) * alpha));
+        return (alpha(dst, alpha) << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    static int multiply(int dst, int src, int alpha) {
+        int dr = (dst >> 16) & 0xff, dg = (dst >> 8) & 0xff, db = dst & 0xff;
+        // Mix from the frame towards the product by the source weight
+        int r = dr - div255((dr - div255(dr * ((src >> 16) & 0xff))) * alpha);
+        int g = dg - div255((dg - div255(dg * ((src >> 8) & 0xff))) * alpha);
+        int b = db - div255((db - div255(db * (src & 0xff))) * alpha);
+        return (alpha(dst, alpha) << 24) | (r << 16) | (g << 8) | b;
+    }
+}
@@ -0,0 +1,164 @@
+package com.peter.ccgraphics.lua;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * Off-heap FrameBuffer, backed by direct memory.<br/>
+ * <br/>
+ * Intended for very large frames (such as big monitor walls) that would otherwise sit in the old generation of the
+ * Java heap. The memory can be released early with {@link #close()}; if it is not, it is released when the frame is
+ * garbage collected. A closed frame must not be used again.
+ */
+public class DirectFrameBuffer extends FrameBuffer implements AutoCloseable {
+
+    /**
+     * Pixels stored as ARGB 8-bit each, row by row
+     */
+    private IntBuffer buffer;
+    private ByteBuffer memory;
+
+    /**
+     * Create a new Frame buffer
+     * @param width Width of the frame
+     * @param height Height of the frame
+     */
+    public DirectFrameBuffer(int width, int height) {
+        super(width, height);
+        memory = ByteBuffer.allocateDirect(width * height * Integer.BYTES).order(ByteOrder.nativeOrder());
+        buffer = memory.asIntBuffer();
+    }
+
+    /**
+     * Create a new off-heap copy of a frame
+     * @param frame Frame to copy
+     * @return Copy of the frame
+     */
+    public static DirectFrameBuffer copyOf(FrameBuffer frame) {
+        DirectFrameBuffer copy = new DirectFrameBuffer(frame.getWidth(), frame.getHeight());
+        if (frame instanceof ArrayFrameBuffer arrayFrame) {
+            copy.buffer.put(0, arrayFrame.getBuffer());
+        } else if (frame instanceof DirectFrameBuffer directFrame) {
+            copy.buffer.put(0, directFrame.getPixelBuffer(), 0, copy.buffer.capacity());
+        } else {
+            for (int i = 0; i < frame.getLength(); i++) {
+                copy.buffer.put(i, frame.getColorIndexed(i));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Get the backing memory of this frame. Changes to the buffer are reflected in the frame,
+     * but are not tracked; use {@link #markModified(int, int)} or {@link #markDamaged} after writing
+     * @return Pixels stored as ARGB 8-bit each, row by row, in native byte order
+     * @throws IllegalStateException If the frame has been closed
+     */
+    public IntBuffer getPixelBuffer() {
+        if (buffer == null)
+            throw new IllegalStateException("Frame buffer has been closed");
+        return buffer;
+    }
+
+    /**
+     * Check if the memory of this frame has been released
+     * @return If {@link #close()} has been called
+     */
+    public boolean isClosed() {
+        return buffer == null;
+    }
+
+    /**
+     * Release the memory of this frame. Any further use of the frame will fail
+     */
+    @Override
+    public void close() {
+        if (memory == null)
+            return;
+        ByteBuffer memory = this.memory;
+        this.memory = null;
+        this.buffer = null;
+        PlatformDependent.freeDirectBuffer(memory);
+    }
+
+    private int xyToIndex(int x, int y) {
+        return x + (y * width);
+    }
+
+    @Override
+    public void setPixel(int x, int y, int color) {
+        assertInFrame(x, y);
+        buffer.put(xyToIndex(x, y), color);
+        markPixelModified(x, y);
+    }
+
+    @Override
+    public void setColorIndexed(int index, int color) {
+        buffer.put(index, color);
+        markModified(index, 1);
+    }
+
+    @Override
+    public int getPixel(int x, int y) {
+        assertInFrame(x, y);
+        return buffer.get(xyToIndex(x, y));
+    }
+
+    @Override
+    public int getColorIndexed(int index) {
+        return buffer.get(index);
+    }
+
+    @Override
+    public void readPixels(int index, int[] dest, int destIndex, int length) {
+        buffer.get(index, dest, destIndex, length);
+    }
+
+    @Override
+    protected void encodePixels(ByteBuf buf) {
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buf.writeInt(buffer.get(i));
+        }
+    }
+
+    @Override
+    protected void decodePixels(ByteBuf buf) {
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, buf.readInt());
+        }
+    }
+
+    @Override
+    public FrameBuffer copy() {
+        return copyOf(this);
+    }
+
+    @Override
+    public float[] getTextureBuffer() {
+        float[] texBuffer = new float[width * height * 3];
+        for (int i = 0; i < buffer.capacity(); i++) {
+            int pixel = buffer.get(i);
+            texBuffer[i*3] = ((float) (pixel >> 16 & 0xff) ) / 255f;
+            texBuffer[i*3+1] = ((float) (pixel >> 8 & 0xff) ) / 255f;
+            texBuffer[i*3+2] = ((float) (pixel & 0xff) ) / 255f;
+        }
+        return texBuffer;
+    }
+
+    @Override
+    public final Map<?, ?> getTable() {
+        HashMap<Object, Integer> table = new HashMap<>();
+        table.put("width", width);
+        table.put("height", height);
+        for (int i = 0; i < buffer.capacity(); i++) {
+            table.put(i, buffer.get(i));
+        }
+        return table;
+    }
+}
@@ -0,0 +1,217 @@
+package com.peter.ccgraphics.lua;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+
+import dan200.computercraft.api.lua.LuaException;
+
+/**
+ * Runs a list of draw commands against a {@link FrameBuffer} in a single call from Lua.<br/>
+ * <br/>
+ * A command is an opcode followed by its arguments. Every command is clipped to the frame's clip rectangle, so
+ * nothing in a batch throws for being outside the frame. The list may be a table of numbers, or a binary string where
+ * opcodes are <code>uint8</code>, positions and sizes are <code>int16</code>, counts are <code>uint16</code>, and
+ * colors are <code>uint32</code> ARGB, all big-endian (<code>string.pack(">B")</code>, <code>">h"</code>,
+ * <code>">H"</code> & <code>">I4"</code>).
+ * <h4>Commands:</h4>
+ * <ul>
+ *  <li> {@value #PIXEL} - Pixel: <code>x, y, color</code> </li>
+ *  <li> {@value #LINE} - Line: <code>x1, y1, x2, y2, color</code> </li>
+ *  <li> {@value #BOX} - Box outline: <code>x, y, w, h, color</code> </li>
+ *  <li> {@value #BOX_FILLED} - Filled box: <code>x, y, w, h, color</code> </li>
+ *  <li> {@value #CIRCLE} - Circle outline: <code>cx, cy, r, color</code> </li>
+ *  <li> {@value #CIRCLE_FILLED} - Filled circle: <code>cx, cy, r, color</code> </li>
+ *  <li> {@value #ELLIPSE} - Ellipse outline: <code>cx, cy, rx, ry, color</code> </li>
+ *  <li> {@value #ELLIPSE_FILLED} - Filled ellipse: <code>cx, cy, rx, ry, color</code> </li>
+ *  <li> {@value #TRIANGLE} - Triangle outline: <code>x1, y1, x2, y2, x3, y3, color</code> </li>
+ *  <li> {@value #TRIANGLE_FILLED} - Filled triangle: <code>x1, y1, x2, y2, x3, y3, color</code> </li>
+ *  <li> {@value #POINTS} - Points of one color: <code>color, count, x1, y1, ... xN, yN</code> </li>
+ * </ul>
+ */
+final class DrawCommands {
+
+    public static final int PIXEL = 1;
+    public static final int LINE = 2;
+    public static final int BOX = 3;
+    public static final int BOX_FILLED = 4;
+    public static final int CIRCLE = 5;
+    public static final int CIRCLE_FILLED = 6;
+    public static final int ELLIPSE = 7;
+    public static final int ELLIPSE_FILLED = 8;
+    public static final int TRIANGLE = 9;
+    public static final int TRIANGLE_FILLED = 10;
+    public static final int POINTS = 11;
+
+    private DrawCommands() {
+    }
+
+    /**
+     * Command arguments, read in order
+     */
+    private interface Source {
+        boolean hasNext();
+
+        int opcode();
+
+        int position();
+
+        int count();
+
+        int color();
+    }
+
+    /**
+     * Run commands from a Lua table of numbers
+     * @param frame    Frame to draw to
+     * @param commands Table of opcodes and arguments, starting at index 1
+     * @return Number of commands run
+     * @throws LuaException If a command was unknown or incomplete
+     */
+    static int execute(FrameBuffer frame, Map<?, ?> commands) throws LuaException {
+        return execute(frame, new TableSource(commands));
+    }
+
+    /**
+     * Run commands from a binary string
+     * @param frame    Frame to draw to
+     * @param commands Packed opcodes and arguments
+     * @return Number of commands run
+     * @throws LuaException If a command was unknown or incomplete
+     */
+    static int execute(FrameBuffer frame, ByteBuffer commands) throws LuaException {
+        return execute(frame, new BinarySource(commands.order(ByteOrder.BIG_ENDIAN)));
+    }
+
+    private static int execute(FrameBuffer frame, Source in) throws LuaException {
+        int executed = 0;
+        try {
+            while (in.hasNext()) {
+                int op = in.opcode();
+                switch (op) {
+                    case PIXEL -> {
+                        int x = in.position(), y = in.position();
+                        int color = in.color();
+                        if (frame.inClip(x, y))
+                            frame.setPixel(x, y, color);
+                    }
+                    case LINE -> frame.drawLineClipped(in.position(), in.position(), in.position(), in.position(),
+                            in.color());
+                    case BOX -> frame.drawBoxClipped(in.position(), in.position(), in.position(), in.position(),
+                            in.color());
+                    case BOX_FILLED -> frame.drawBoxFilledClipped(in.position(), in.position(), in.position(),
+                            in.position(), in.color());
+                    case CIRCLE -> frame.drawCircle(in.position(), in.position(), in.position(), in.color());
+                    case CIRCLE_FILLED -> frame.drawCircleFilled(in.position(), in.position(), in.position(),
+                            in.color());
+                    case ELLIPSE -> frame.drawEllipse(in.position(), in.position(), in.position(), in.position(),
+                            in.color());
+                    case ELLIPSE_FILLED -> frame.drawEllipseFilled(in.position(), in.position(), in.position(),
+                            in.position(), in.color());
+                    case TRIANGLE -> frame.drawPolygon(triangle(in), in.color());
+                    case TRIANGLE_FILLED -> frame.drawPolygonFilled(triangle(in), in.color());
+                    case POINTS -> {
+                        int color = in.color();
+                        int count = in.count();
+                        for (int i = 0; i < count; i++) {
+                            int x = in.position(), y = in.position();
+                            if (frame.inClip(x, y))
+                                frame.setPixel(x, y, color);
+                        }
+                    }
+                    default -> throw new LuaException("Unknown draw command " + op + " (command " + (executed + 1) + ")");
+                }
+                executed++;
+            }
+        } catch (IllegalArgumentException e) {
+            throw new LuaException(e.getMessage() + " (command " + (executed + 1) + ")");
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new LuaException("Draw command " + (executed + 1) + " is missing arguments");
+        }
+        return executed;
+    }
+
+    private static int[] triangle(Source in) {
+        return new int[] { in.position(), in.position(), in.position(), in.position(), in.position(),
+                in.position() };
+    }
+
+    private static class TableSource implements Source {
+        private final Map<?, ?> table;
+        private final int size;
+        private int index = 1;
+
+        TableSource(Map<?, ?> table) {
+            this.table = table;
+            size = table.size();
+        }
+
+        private double next() {
+            if (index > size)
+                throw new IndexOutOfBoundsException();
+            if (!(table.get((double) index++) instanceof Number n))
+                throw new IllegalArgumentException("Draw commands must be a list of numbers, index " + (index - 1)
+                        + " was not a number");
+            return n.doubleValue();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index <= size;
+        }
+
+        @Override
+        public int opcode() {
+            return (int) next();
+        }
+
+        @Override
+        public int position() {
+            return (int) Math.floor(next());
+        }
+
+        @Override
+        public int count() {
+            return Math.max((int) next(), 0);
+        }
+
+        @Override
+        public int color() {
+            return (int) (long) next();
+        }
+    }
+
+    private static class BinarySource implements Source {
+        private final ByteBuffer buffer;
+
+        BinarySource(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return buffer.hasRemaining();
+        }
+
+        @Override
+        public int opcode() {
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int position() {
+            return buffer.getShort();
+        }
+
+        @Override
+        public int count() {
+            return buffer.getShort() & 0xffff;
+        }
+
+        @Override
+        public int color() {
+            return buffer.getInt();
+        }
+    }
+}
@@ -1,16 +1,21 @@
 package com.peter.ccgraphics.lua;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
 import com.peter.ccgraphics.CCGraphics;
+import com.peter.ccgraphics.data.DamageTracker;
 import com.peter.ccgraphics.data.FrameBufferBinary;
 
 import dan200.computercraft.api.lua.IArguments;
 import dan200.computercraft.api.lua.LuaException;
 import dan200.computercraft.api.lua.LuaFunction;
+import dan200.computercraft.api.lua.MethodResult;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import net.minecraft.network.codec.PacketCodec;
 
 /**
@@ -47,6 +52,38 @@ public abstract class FrameBuffer extends CustomLuaObject {
      */
     protected final int height;
 
+    /**
+     * Tracks modified regions, or <code>null</code> if tracking is disabled
+     */
+    protected DamageTracker damage = null;
+
+    /**
+     * Deepest the clip stack can get, see {@link #pushClip}
+     */
+    public static final int MAX_CLIP_DEPTH = 64;
+
+    /**
+     * Current clip rectangle, as inclusive start and exclusive end positions. Only used by the clipped draw methods
+     */
+    int clipX0, clipY0, clipX1, clipY1;
+    /**
+     * Clip rectangles saved by {@link #pushClip}, as <code>{x0, y0, x1, y1}</code>
+     */
+    private final Deque<int[]> clipStack = new ArrayDeque<>();
+
+    /**
+     * Incremented on every write, see {@link #getModCount()}
+     */
+    private int modCount = 0;
+
+    private record EncodedFrame(int modCount, ByteBuf bytes) {
+    }
+
+    /**
+     * Last result of {@link #getEncoded()}
+     */
+    private volatile EncodedFrame encodedCache = null;
+
     /**
      * Create a new Frame buffer
      * @param width Width of the frame
@@ -55,6 +92,110 @@ public abstract class FrameBuffer extends CustomLuaObject {
     public FrameBuffer(int width, int height) {
         this.width = width;
         this.height = height;
+        clipX1 = width;
+        clipY1 = height;
+    }
+
+    /**
+     * Enable or disable tracking of modified regions.<br/>
+     * <br/>
+     * When enabling, the whole frame starts as damaged. Copies of the frame do not track damage.
+     * 
+     * @param enabled If damage should be tracked
+     * @see #getDamage()
+     */
+    public void setDamageTracking(boolean enabled) {
+        if (!enabled) {
+            damage = null;
+        } else if (damage == null) {
+            damage = new DamageTracker(width, height);
+            damage.markAll();
+        }
+    }
+
+    /**
+     * Get the regions modified since the damage was last cleared
+     * 
+     * @return Damage tracker for this frame, or <code>null</code> if tracking is disabled
+     */
+    public DamageTracker getDamage() {
+        return damage;
+    }
+
+    /**
+     * Mark a region as modified.<br/>
+     * <br/>
+     * Implementations must call this or {@link #markModified(int, int)} when writing pixels, so damage tracking and
+     * the encoded frame cache stay correct.
+     * 
+     * @param x X position of the region
+     * @param y Y position of the region
+     * @param w Width of the region
+     * @param h Height of the region
+     */
+    public void markDamaged(int x, int y, int w, int h) {
+        modCount++;
+        if (damage != null)
+            damage.mark(x, y, w, h);
+    }
+
+    /**
+     * Mark a run of pixels as modified
+     * 
+     * @param index  Index of the first pixel (<code>x + y * width</code>)
+     * @param length Number of pixels
+     * @see #markDamaged(int, int, int, int)
+     */
+    public void markModified(int index, int length) {
+        modCount++;
+        if (damage != null)
+            damage.markSpan(index, length);
+    }
+
+    /**
+     * Mark a single pixel as modified. Should be called by {@link #setPixel} implementations
+     * 
+     * @param x X position of the pixel
+     * @param y Y position of the pixel
+     */
+    protected final void markPixelModified(int x, int y) {
+        modCount++;
+        if (damage != null)
+            damage.mark(x, y);
+    }
+
+    /**
+     * Get the modification counter of this frame. It changes whenever a pixel is written
+     * 
+     * @return Modification count
+     */
+    public int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * Get this frame encoded as FrameBufferBinary, as sent over the network.<br/>
+     * <br/>
+     * The result is cached until the frame is next modified, so a frame sent to many players (or in many packets) is
+     * only encoded once. The returned buffer is read-only and must only be read with absolute indices, as it may be
+     * shared between threads.
+     * 
+     * @return Encoded frame
+     */
+    public ByteBuf getEncoded() {
+        EncodedFrame cached = encodedCache;
+        int mods = modCount;
+        if (cached != null && cached.modCount() == mods)
+            return cached.bytes();
+        ByteBuf buf = Unpooled.buffer();
+        FrameBufferBinary.Encoder encoder = new FrameBufferBinary.Encoder(this);
+        encoder.setOpaque(true);
+        encoder.tryRLE();
+        encoder.tryIndexed();
+        encoder.encode(buf);
+        ByteBuf bytes = buf.asReadOnly();
+        encodedCache = new EncodedFrame(mods, bytes);
+        return bytes;
     }
 
     /**
@@ -235,50 +376,7 @@ public abstract class FrameBuffer extends CustomLuaObject {
         if (x2 < 0 || x2 >= width || y2 < 0 || y2 >= height)
             throw new ArrayIndexOutOfBoundsException("(x2, y2) must be between (0,0) & (width-1, height-1)");
 
-        if (x1 == x2 && y1 == y2) {
-            setPixel(x1, y1, color);
-            return;
-        }
-
-        int minX = x1;
-        int minY = y1;
-        int maxX = x2;
-        int maxY = y2;
-        if (x2 < x1) {
-            maxX = x1;
-            minX = x2;
-            maxY = y2;
-            minY = y1;
-        }
-        if (minX >= width || maxX < 0)
-            return;
-
-        int diffX = maxX - minX;
-        int diffY = maxY - minY;
-
-        if (diffX > Math.abs(diffY)) {
-            float y = minY;
-            float dy = (float) diffY / (float) diffX;
-
-            for (int x = minX; x <= maxX; x++) {
-                setPixel(x, Math.round(y), color);
-                y += dy;
-            }
-        } else {
-            float x = minX;
-            float dx = (float) diffX / (float) diffY;
-            if (maxY >= minY) {
-                for (int y = minY; y <= maxY; y++) {
-                    setPixel(Math.round(x), y, color);
-                    x += dx;
-                }
-            } else {
-                for (int y = minY; y >= maxY; y--) {
-                    setPixel(Math.round(x), y, color);
-                    x += dx;
-                }
-            }
-        }
+        Rasterizer.line(this, x1, y1, x2, y2, color);
     }
 
     /**
@@ -460,6 +558,625 @@ public abstract class FrameBuffer extends CustomLuaObject {
         }
     }
 
+    /**
+     * Narrow the clip rectangle used by the clipped draw methods, saving the current one.<br/>
+     * The new clip is the intersection of the current clip and the given rectangle
+     * 
+     * @param x X position of the rectangle
+     * @param y Y position of the rectangle
+     * @param w Width of the rectangle
+     * @param h Height of the rectangle
+     * @throws IllegalStateException If the clip stack is already {@value #MAX_CLIP_DEPTH} deep
+     */
+    public void pushClip(int x, int y, int w, int h) {
+        if (clipStack.size() >= MAX_CLIP_DEPTH)
+            throw new IllegalStateException("Clip stack can not be deeper than " + MAX_CLIP_DEPTH);
+        clipStack.push(new int[] { clipX0, clipY0, clipX1, clipY1 });
+        clipX0 = Math.max(clipX0, x);
+        clipY0 = Math.max(clipY0, y);
+        clipX1 = Math.max(clipX0, Math.min(clipX1, x + Math.max(w, 0)));
+        clipY1 = Math.max(clipY0, Math.min(clipY1, y + Math.max(h, 0)));
+    }
+
+    /**
+     * Narrow the clip rectangle used by the clipped draw methods, saving the current one.<br/>
+     * The new clip is the intersection of the current clip and the given rectangle
+     * 
+     * @param x X position of the rectangle
+     * @param y Y position of the rectangle
+     * @param w Width of the rectangle
+     * @param h Height of the rectangle
+     * @throws LuaException If the clip stack is already {@value #MAX_CLIP_DEPTH} deep
+     */
+    @LuaFunction(value = "pushClip")
+    public final void pushClipLUA(double x, double y, double w, double h) throws LuaException {
+        try {
+            pushClip(convertDouble(x), convertDouble(y), convertDouble(w), convertDouble(h));
+        } catch (IllegalStateException e) {
+            throw new LuaException(e.getMessage());
+        }
+    }
+
+    /**
+     * Restore the clip rectangle saved by the last {@link #pushClip}
+     * 
+     * @return If there was a clip rectangle to restore
+     */
+    @LuaFunction
+    public final boolean popClip() {
+        int[] clip = clipStack.poll();
+        if (clip == null)
+            return false;
+        clipX0 = clip[0];
+        clipY0 = clip[1];
+        clipX1 = clip[2];
+        clipY1 = clip[3];
+        return true;
+    }
+
+    /**
+     * Get the current clip rectangle
+     * 
+     * @return X, Y, width, and height of the clip
+     */
+    @LuaFunction
+    public final MethodResult getClip() {
+        return MethodResult.of(clipX0, clipY0, clipX1 - clipX0, clipY1 - clipY0);
+    }
+
+    /**
+     * Check if the given position is inside the clip rectangle
+     * 
+     * @param x X position to check
+     * @param y Y position to check
+     * @return If the position was inside the clip
+     */
+    public boolean inClip(int x, int y) {
+        return x >= clipX0 && x < clipX1 && y >= clipY0 && y < clipY1;
+    }
+
+    /**
+     * Draw a filled box, skipping any part outside the clip rectangle
+     * 
+     * @param x     X position of the box
+     * @param y     Y position of the box
+     * @param w     Width of the box
+     * @param h     Height of the box
+     * @param color Color of the box. ARGB 8b each
+     */
+    public void drawBoxFilledClipped(int x, int y, int w, int h, int color) {
+        if (w <= 0 || h <= 0)
+            return;
+        int x0 = Math.max(x, clipX0);
+        int y0 = Math.max(y, clipY0);
+        int x1 = (int) Math.min((long) x + w, clipX1);
+        int y1 = (int) Math.min((long) y + h, clipY1);
+        if (x0 < x1 && y0 < y1)
+            drawBoxFilled(x0, y0, x1 - x0, y1 - y0, color);
+    }
+
+    /**
+     * Draw a filled box, skipping any part outside the clip rectangle
+     * 
+     * @param x     X position of the box
+     * @param y     Y position of the box
+     * @param w     Width of the box
+     * @param h     Height of the box
+     * @param color Color of the box. ARGB 8b each
+     */
+    @LuaFunction(value = "drawBoxFilledClipped")
+    public final void drawBoxFilledClippedLUA(double x, double y, double w, double h, int color) {
+        drawBoxFilledClipped(convertDouble(x), convertDouble(y), convertDouble(w), convertDouble(h), color);
+    }
+
+    /**
+     * Draw a box outline, skipping any part outside the clip rectangle
+     * 
+     * @param x     X position of the box
+     * @param y     Y position of the box
+     * @param w     Width of the box
+     * @param h     Height of the box
+     * @param color Color of the outline. ARGB 8b each
+     */
+    public void drawBoxClipped(int x, int y, int w, int h, int color) {
+        if (w <= 0 || h <= 0)
+            return;
+        drawBoxFilledClipped(x, y, w, 1, color);
+        if (h > 1)
+            drawBoxFilledClipped(x, y + h - 1, w, 1, color);
+        if (h > 2) {
+            drawBoxFilledClipped(x, y + 1, 1, h - 2, color);
+            if (w > 1)
+                drawBoxFilledClipped(x + w - 1, y + 1, 1, h - 2, color);
+        }
+    }
+
+    /**
+     * Draw a box outline, skipping any part outside the clip rectangle
+     * 
+     * @param x     X position of the box
+     * @param y     Y position of the box
+     * @param w     Width of the box
+     * @param h     Height of the box
+     * @param color Color of the outline. ARGB 8b each
+     */
+    @LuaFunction(value = "drawBoxClipped")
+    public final void drawBoxClippedLUA(double x, double y, double w, double h, int color) {
+        drawBoxClipped(convertDouble(x), convertDouble(y), convertDouble(w), convertDouble(h), color);
+    }
+
+    /**
+     * Draw a line on this buffer, skipping any part outside the clip rectangle.<br/>
+     * The ends may be anywhere, the line is drawn as if the frame were large enough to hold it
+     * 
+     * @param x1    X position of the start of the line
+     * @param y1    Y position of the start of the line
+     * @param x2    X position of the end of the line
+     * @param y2    Y position of the end of the line
+     * @param color Color of the line. ARGB 8b each
+     */
+    public void drawLineClipped(int x1, int y1, int x2, int y2, int color) {
+        Rasterizer.clippedLine(this, x1, y1, x2, y2, color);
+    }
+
+    /**
+     * Draw a line on this buffer, skipping any part outside the clip rectangle
+     * 
+     * @param x1    X position of the start of the line
+     * @param y1    Y position of the start of the line
+     * @param x2    X position of the end of the line
+     * @param y2    Y position of the end of the line
+     * @param color Color of the line. ARGB 8b each
+     */
+    @LuaFunction(value = "drawLineClipped")
+    public final void drawLineClippedLUA(double x1, double y1, double x2, double y2, int color) {
+        drawLineClipped(convertDouble(x1), convertDouble(y1), convertDouble(x2), convertDouble(y2), color);
+    }
+
+    /**
+     * Draw the provided buffer onto this buffer, skipping any part outside the clip rectangle or outside
+     * <code>buffer2</code>
+     * 
+     * @param x       X position on THIS buffer to start drawing
+     * @param y       Y position on THIS buffer to start drawing
+     * @param buffer2 Buffer to draw
+     * @param xOff    X position on <code>buffer2</code> to start drawing from
+     * @param yOff    Y position on <code>buffer2</code> to start drawing from
+     * @param w       Width of <code>buffer2</code> to draw from <code>xOff</code>
+     * @param h       Height of <code>buffer2</code> to draw from <code>yOff</code>
+     */
+    public void drawBufferClipped(int x, int y, FrameBuffer buffer2, int xOff, int yOff, int w, int h) {
+        blitClipped(x, y, buffer2, xOff, yOff, w, h, false);
+    }
+
+    /**
+     * Draw the provided buffer onto this buffer, skipping any part outside the clip rectangle or outside
+     * <code>buffer2</code>. Pixels with an Alpha of 0 will not be drawn onto this buffer.
+     * 
+     * @param x       X position on THIS buffer to start drawing
+     * @param y       Y position on THIS buffer to start drawing
+     * @param buffer2 Buffer to draw
+     * @param xOff    X position on <code>buffer2</code> to start drawing from
+     * @param yOff    Y position on <code>buffer2</code> to start drawing from
+     * @param w       Width of <code>buffer2</code> to draw from <code>xOff</code>
+     * @param h       Height of <code>buffer2</code> to draw from <code>yOff</code>
+     */
+    public void drawBufferMaskedClipped(int x, int y, FrameBuffer buffer2, int xOff, int yOff, int w, int h) {
+        blitClipped(x, y, buffer2, xOff, yOff, w, h, true);
+    }
+
+    /**
+     * Trim a blit to the source, then to the clip, moving both positions together
+     * @return <code>{x, y, xOff, yOff, w, h}</code>, or <code>null</code> if nothing is left to draw
+     */
+    private int[] clipBlit(int x, int y, FrameBuffer buffer2, int xOff, int yOff, int w, int h) {
+        int trim = Math.max(Math.max(-xOff, clipX0 - x), 0);
+        x += trim;
+        xOff += trim;
+        w = Math.min(w - trim, Math.min(buffer2.width - xOff, clipX1 - x));
+        trim = Math.max(Math.max(-yOff, clipY0 - y), 0);
+        y += trim;
+        yOff += trim;
+        h = Math.min(h - trim, Math.min(buffer2.height - yOff, clipY1 - y));
+        if (w <= 0 || h <= 0)
+            return null;
+        return new int[] { x, y, xOff, yOff, w, h };
+    }
+
+    private void blitClipped(int x, int y, FrameBuffer buffer2, int xOff, int yOff, int w, int h, boolean masked) {
+        int[] r = clipBlit(x, y, buffer2, xOff, yOff, w, h);
+        if (r == null)
+            return;
+        if (masked)
+            drawBufferMasked(r[0], r[1], buffer2, r[2], r[3], r[4], r[5]);
+        else
+            drawBuffer(r[0], r[1], buffer2, r[2], r[3], r[4], r[5]);
+    }
+
+    /**
+     * Blend the provided buffer onto this buffer, skipping any part outside the clip rectangle or outside
+     * <code>buffer2</code>
+     * 
+     * @param x       X position on THIS buffer to start drawing
+     * @param y       Y position on THIS buffer to start drawing
+     * @param buffer2 Buffer to draw
+     * @param xOff    X position on <code>buffer2</code> to start drawing from
+     * @param yOff    Y position on <code>buffer2</code> to start drawing from
+     * @param w       Width of <code>buffer2</code> to draw from <code>xOff</code>
+     * @param h       Height of <code>buffer2</code> to draw from <code>yOff</code>
+     * @param mode    How to combine the pixels
+     * @param opacity Opacity of the whole buffer, multiplied with each pixel's alpha. 0-255
+     * @throws IllegalArgumentException If the opacity was out of range
+     */
+    public void drawBufferBlended(int x, int y, FrameBuffer buffer2, int xOff, int yOff, int w, int h, BlendMode mode,
+            int opacity) {
+        if (opacity < 0 || opacity > 255)
+            throw new IllegalArgumentException("Opacity must be between 0 and 255, was " + opacity);
+        int[] r = clipBlit(x, y, buffer2, xOff, yOff, w, h);
+        if (r == null || opacity == 0)
+            return;
+        blendBuffer(r[0], r[1], buffer2, r[2], r[3], r[4], r[5], mode, opacity);
+    }
+
+    /**
+     * Blend an area of <code>buffer2</code> that is known to be inside both frames
+     */
+    protected void blendBuffer(int x, int y, FrameBuffer buffer2, int xOff, int yOff, int w, int h, BlendMode mode,
+            int opacity) {
+        // Blending from ourselves would read pixels that were already blended
+        FrameBuffer src = buffer2 == this ? copy() : buffer2;
+        for (int j = 0; j < h; j++) {
+            for (int i = 0; i < w; i++) {
+                int color = src.getPixel(i + xOff, j + yOff);
+                int alpha = BlendMode.weight(color, opacity);
+                if (alpha > 0)
+                    setPixel(x + i, y + j, mode.blend(getPixel(x + i, y + j), color, alpha));
+            }
+        }
+    }
+
+    /**
+     * Blend the provided buffer onto this buffer, skipping any part outside the clip rectangle
+     * 
+     * @param x       X position on THIS buffer to start drawing
+     * @param y       Y position on THIS buffer to start drawing
+     * @param buffer2 Buffer to draw
+     * @param mode    <i>(Optional)</i> Blend mode, one of <code>over</code>, <code>add</code>, or <code>multiply</code>. Defaults to <code>over</code>
+     * @param opacity <i>(Optional)</i> Opacity of the whole buffer, 0-255. Defaults to <code>255</code>
+     * @param xOff    <i>(Optional)</i> X position on <code>buffer2</code> to start drawing from. Defaults to <code>0</code>
+     * @param yOff    <i>(Optional)</i> Y position on <code>buffer2</code> to start drawing from. Defaults to <code>0</code>
+     * @param w       <i>(Optional)</i> Width of <code>buffer2</code> to draw from <code>xOff</code>. Defaults to <code>buffer2.getWidth() - xOff</code>
+     * @param h       <i>(Optional)</i> Height of <code>buffer2</code> to draw from <code>yOff</code>. Defaults to <code>buffer2.getHeight() - yOff</code>
+     * @throws LuaException If the mode or opacity were invalid OR the frame was an invalid frame buffer
+     */
+    @LuaFunction(value = "drawBufferBlended")
+    public final void drawBufferBlendedLUA(IArguments arguments) throws LuaException {
+        Object arg2 = arguments.get(2);
+        FrameBuffer buffer2;
+        if (arg2 instanceof FrameBuffer frameBuffer) {
+            buffer2 = frameBuffer;
+        } else {
+            buffer2 = fromTableLUA(arguments.getTable(2));
+        }
+        try {
+            BlendMode mode = BlendMode.fromName(arguments.optString(3).orElse(BlendMode.OVER.getName()));
+            int opacity = arguments.optInt(4, 255);
+            int xOff = convertDouble(arguments.optDouble(5, 0));
+            int yOff = convertDouble(arguments.optDouble(6, 0));
+            int w = convertDouble(arguments.optDouble(7, buffer2.width - xOff));
+            int h = convertDouble(arguments.optDouble(8, buffer2.height - yOff));
+            drawBufferBlended(convertDouble(arguments.getDouble(0)), convertDouble(arguments.getDouble(1)), buffer2,
+                    xOff, yOff, w, h, mode, opacity);
+        } catch (IllegalArgumentException e) {
+            throw new LuaException(e.getMessage());
+        }
+    }
+
+    /**
+     * Draw the provided buffer onto this buffer, skipping any part outside the clip rectangle
+     * 
+     * @param x       X position on THIS buffer to start drawing
+     * @param y       Y position on THIS buffer to start drawing
+     * @param buffer2 Buffer to draw
+     * @param xOff    <i>(Optional)</i> X position on <code>buffer2</code> to start drawing from. Defaults to <code>0</code>
+     * @param yOff    <i>(Optional)</i> Y position on <code>buffer2</code> to start drawing from. Defaults to <code>0</code>
+     * @param w       <i>(Optional)</i> Width of <code>buffer2</code> to draw from <code>xOff</code>. Defaults to <code>buffer2.getWidth() - xOff</code>
+     * @param h       <i>(Optional)</i> Height of <code>buffer2</code> to draw from <code>yOff</code>. Defaults to <code>buffer2.getHeight() - yOff</code>
+     * @throws LuaException If the frame was an invalid frame buffer
+     */
+    @LuaFunction(value = "drawBufferClipped")
+    public final void drawBufferClippedLUA(IArguments arguments) throws LuaException {
+        blitClippedLUA(arguments, false);
+    }
+
+    /**
+     * Draw the provided buffer onto this buffer, skipping any part outside the clip rectangle. Pixels with an Alpha
+     * of 0 will not be drawn onto this buffer.
+     * 
+     * @param x       X position on THIS buffer to start drawing
+     * @param y       Y position on THIS buffer to start drawing
+     * @param buffer2 Buffer to draw
+     * @param xOff    <i>(Optional)</i> X position on <code>buffer2</code> to start drawing from. Defaults to <code>0</code>
+     * @param yOff    <i>(Optional)</i> Y position on <code>buffer2</code> to start drawing from. Defaults to <code>0</code>
+     * @param w       <i>(Optional)</i> Width of <code>buffer2</code> to draw from <code>xOff</code>. Defaults to <code>buffer2.getWidth() - xOff</code>
+     * @param h       <i>(Optional)</i> Height of <code>buffer2</code> to draw from <code>yOff</code>. Defaults to <code>buffer2.getHeight() - yOff</code>
+     * @throws LuaException If the frame was an invalid frame buffer
+     */
+    @LuaFunction(value = "drawBufferMaskedClipped")
+    public final void drawBufferMaskedClippedLUA(IArguments arguments) throws LuaException {
+        blitClippedLUA(arguments, true);
+    }
+
+    private void blitClippedLUA(IArguments arguments, boolean masked) throws LuaException {
+        Object arg2 = arguments.get(2);
+        FrameBuffer buffer2;
+        if (arg2 instanceof FrameBuffer frameBuffer) {
+            buffer2 = frameBuffer;
+        } else {
+            buffer2 = fromTableLUA(arguments.getTable(2));
+        }
+        int xOff = convertDouble(arguments.optDouble(3, 0));
+        int yOff = convertDouble(arguments.optDouble(4, 0));
+        int w = convertDouble(arguments.optDouble(5, buffer2.width - xOff));
+        int h = convertDouble(arguments.optDouble(6, buffer2.height - yOff));
+        blitClipped(convertDouble(arguments.getDouble(0)), convertDouble(arguments.getDouble(1)), buffer2, xOff, yOff,
+                w, h, masked);
+    }
+
+    /**
+     * Most pixels a circle or ellipse radius may be
+     */
+    public static final int MAX_RADIUS = 16384;
+
+    private static void checkRadius(int r) {
+        if (r < 0 || r > MAX_RADIUS)
+            throw new IllegalArgumentException("Radius must be between 0 and " + MAX_RADIUS + ", was " + r);
+    }
+
+    /**
+     * Draw a circle outline, skipping any part outside the clip rectangle
+     * 
+     * @param cx    X position of the center
+     * @param cy    Y position of the center
+     * @param r     Radius of the circle
+     * @param color Color of the outline. ARGB 8b each
+     * @throws IllegalArgumentException If the radius was out of range
+     */
+    public void drawCircle(int cx, int cy, int r, int color) {
+        checkRadius(r);
+        Rasterizer.drawRows(this, cx, cy, Rasterizer.circleRows(r), color, false);
+    }
+
+    /**
+     * Draw a filled circle, skipping any part outside the clip rectangle
+     * 
+     * @param cx    X position of the center
+     * @param cy    Y position of the center
+     * @param r     Radius of the circle
+     * @param color Color of the circle. ARGB 8b each
+     * @throws IllegalArgumentException If the radius was out of range
+     */
+    public void drawCircleFilled(int cx, int cy, int r, int color) {
+        checkRadius(r);
+        Rasterizer.drawRows(this, cx, cy, Rasterizer.circleRows(r), color, true);
+    }
+
+    /**
+     * Draw an ellipse outline, skipping any part outside the clip rectangle
+     * 
+     * @param cx    X position of the center
+     * @param cy    Y position of the center
+     * @param rx    Horizontal radius
+     * @param ry    Vertical radius
+     * @param color Color of the outline. ARGB 8b each
+     * @throws IllegalArgumentException If either radius was out of range
+     */
+    public void drawEllipse(int cx, int cy, int rx, int ry, int color) {
+        checkRadius(rx);
+        checkRadius(ry);
+        Rasterizer.drawRows(this, cx, cy, Rasterizer.ellipseRows(rx, ry), color, false);
+    }
+
+    /**
+     * Draw a filled ellipse, skipping any part outside the clip rectangle
+     * 
+     * @param cx    X position of the center
+     * @param cy    Y position of the center
+     * @param rx    Horizontal radius
+     * @param ry    Vertical radius
+     * @param color Color of the ellipse. ARGB 8b each
+     * @throws IllegalArgumentException If either radius was out of range
+     */
+    public void drawEllipseFilled(int cx, int cy, int rx, int ry, int color) {
+        checkRadius(rx);
+        checkRadius(ry);
+        Rasterizer.drawRows(this, cx, cy, Rasterizer.ellipseRows(rx, ry), color, true);
+    }
+
+    /**
+     * Draw a closed polygon outline, skipping any part outside the clip rectangle
+     * 
+     * @param points Vertices as <code>{x1, y1, x2, y2, ...}</code>
+     * @param color  Color of the outline. ARGB 8b each
+     */
+    public void drawPolygon(int[] points, int color) {
+        Rasterizer.strokePolygon(this, points, color);
+    }
+
+    /**
+     * Draw a filled polygon, skipping any part outside the clip rectangle. Self-intersecting polygons are filled by
+     * the even-odd rule
+     * 
+     * @param points Vertices as <code>{x1, y1, x2, y2, ...}</code>
+     * @param color  Color of the polygon. ARGB 8b each
+     */
+    public void drawPolygonFilled(int[] points, int color) {
+        Rasterizer.fillPolygon(this, points, color);
+        // The fill only covers pixel centers inside the edges, so draw the edges to match the outline
+        Rasterizer.strokePolygon(this, points, color);
+    }
+
+    /**
+     * Draw a circle outline, skipping any part outside the clip rectangle
+     * 
+     * @param cx    X position of the center
+     * @param cy    Y position of the center
+     * @param r     Radius of the circle
+     * @param color Color of the outline. ARGB 8b each
+     * @throws LuaException If the radius was out of range
+     */
+    @LuaFunction(value = "drawCircle")
+    public final void drawCircleLUA(double cx, double cy, double r, int color) throws LuaException {
+        try {
+            drawCircle(convertDouble(cx), convertDouble(cy), convertDouble(r), color);
+        } catch (IllegalArgumentException e) {
+            throw new LuaException(e.getMessage());
+        }
+    }
+
+    /**
+     * Draw a filled circle, skipping any part outside the clip rectangle
+     * 
+     * @param cx    X position of the center
+     * @param cy    Y position of the center
+     * @param r     Radius of the circle
+     * @param color Color of the circle. ARGB 8b each
+     * @throws LuaException If the radius was out of range
+     */
+    @LuaFunction(value = "drawCircleFilled")
+    public final void drawCircleFilledLUA(double cx, double cy, double r, int color) throws LuaException {
+        try {
+            drawCircleFilled(convertDouble(cx), convertDouble(cy), convertDouble(r), color);
+        } catch (IllegalArgumentException e) {
+            throw new LuaException(e.getMessage());
+        }
+    }
+
+    /**
+     * Draw an ellipse outline, skipping any part outside the clip rectangle
+     * 
+     * @param cx    X position of the center
+     * @param cy    Y position of the center
+     * @param rx    Horizontal radius
+     * @param ry    Vertical radius
+     * @param color Color of the outline. ARGB 8b each
+     * @throws LuaException If either radius was out of range
+     */
+    @LuaFunction(value = "drawEllipse")
+    public final void drawEllipseLUA(double cx, double cy, double rx, double ry, int color) throws LuaException {
+        try {
+            drawEllipse(convertDouble(cx), convertDouble(cy), convertDouble(rx), convertDouble(ry), color);
+        } catch (IllegalArgumentException e) {
+            throw new LuaException(e.getMessage());
+        }
+    }
+
+    /**
+     * Draw a filled ellipse, skipping any part outside the clip rectangle
+     * 
+     * @param cx    X position of the center
+     * @param cy    Y position of the center
+     * @param rx    Horizontal radius
+     * @param ry    Vertical radius
+     * @param color Color of the ellipse. ARGB 8b each
+     * @throws LuaException If either radius was out of range
+     */
+    @LuaFunction(value = "drawEllipseFilled")
+    public final void drawEllipseFilledLUA(double cx, double cy, double rx, double ry, int color)
+            throws LuaException {
+        try {
+            drawEllipseFilled(convertDouble(cx), convertDouble(cy), convertDouble(rx), convertDouble(ry), color);
+        } catch (IllegalArgumentException e) {
+            throw new LuaException(e.getMessage());
+        }
+    }
+
+    /**
+     * Draw a triangle outline, skipping any part outside the clip rectangle
+     * 
+     * @param x1    X position of the first corner
+     * @param y1    Y position of the first corner
+     * @param x2    X position of the second corner
+     * @param y2    Y position of the second corner
+     * @param x3    X position of the third corner
+     * @param y3    Y position of the third corner
+     * @param color Color of the outline. ARGB 8b each
+     */
+    @LuaFunction(value = "drawTriangle")
+    public final void drawTriangleLUA(double x1, double y1, double x2, double y2, double x3, double y3, int color) {
+        drawPolygon(new int[] { convertDouble(x1), convertDouble(y1), convertDouble(x2), convertDouble(y2),
+                convertDouble(x3), convertDouble(y3) }, color);
+    }
+
+    /**
+     * Draw a filled triangle, skipping any part outside the clip rectangle
+     * 
+     * @param x1    X position of the first corner
+     * @param y1    Y position of the first corner
+     * @param x2    X position of the second corner
+     * @param y2    Y position of the second corner
+     * @param x3    X position of the third corner
+     * @param y3    Y position of the third corner
+     * @param color Color of the triangle. ARGB 8b each
+     */
+    @LuaFunction(value = "drawTriangleFilled")
+    public final void drawTriangleFilledLUA(double x1, double y1, double x2, double y2, double x3, double y3,
+            int color) {
+        drawPolygonFilled(new int[] { convertDouble(x1), convertDouble(y1), convertDouble(x2), convertDouble(y2),
+                convertDouble(x3), convertDouble(y3) }, color);
+    }
+
+    /**
+     * Draw a closed polygon outline, skipping any part outside the clip rectangle
+     * 
+     * @param points Vertices as <code>{x1, y1, x2, y2, ...}</code>
+     * @param color  Color of the outline. ARGB 8b each
+     * @throws LuaException If the points were not a list of numbers
+     */
+    @LuaFunction(value = "drawPolygon")
+    public final void drawPolygonLUA(Map<?, ?> points, int color) throws LuaException {
+        drawPolygon(getPoints(points), color);
+    }
+
+    /**
+     * Draw a filled polygon, skipping any part outside the clip rectangle
+     * 
+     * @param points Vertices as <code>{x1, y1, x2, y2, ...}</code>
+     * @param color  Color of the polygon. ARGB 8b each
+     * @throws LuaException If the points were not a list of numbers
+     */
+    @LuaFunction(value = "drawPolygonFilled")
+    public final void drawPolygonFilledLUA(Map<?, ?> points, int color) throws LuaException {
+        drawPolygonFilled(getPoints(points), color);
+    }
+
+    private static int[] getPoints(Map<?, ?> table) throws LuaException {
+        int count = table.size() & ~1;
+        int[] points = new int[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                points[i] = LuaTableHelper.getInt(table, (double) (i + 1));
+            }
+        } catch (NoSuchElementException e) {
+            throw new LuaException("Points must be a list of numbers as {x1, y1, x2, y2, ...}");
+        }
+        return points;
+    }
+
+    /**
+     * Run a batch of draw commands in one call. Every command is clipped to the clip rectangle
+     * 
+     * @param commands Table of opcodes and arguments, or a binary string of them. See {@link DrawCommands}
+     * @return Number of commands run
+     * @throws LuaException If a command was unknown or incomplete
+     */
+    @LuaFunction(value = "drawCommands")
+    public final int drawCommandsLUA(IArguments arguments) throws LuaException {
+        if (arguments.get(0) instanceof Map<?, ?> table)
+            return DrawCommands.execute(this, table);
+        return DrawCommands.execute(this, arguments.getBytes(0));
+    }
+
     /**
      * Get the width of the frame
      * 
@@ -548,11 +1265,8 @@ public abstract class FrameBuffer extends CustomLuaObject {
         // buf.writeInt(width);
         // buf.writeInt(height);
         // encodePixels(buf);
-        FrameBufferBinary.Encoder encoder = new FrameBufferBinary.Encoder(this);
-        encoder.setOpaque(true);
-        encoder.tryRLE();
-        encoder.tryIndexed();
-        buf.writeBytes(encoder.encode());
+        ByteBuf encoded = getEncoded();
+        buf.writeBytes(encoded, encoded.readerIndex(), encoded.readableBytes());
     }
 
     /**
@@ -569,10 +1283,8 @@ public abstract class FrameBuffer extends CustomLuaObject {
     private static FrameBuffer decode(ByteBuf buf) {
         FrameBufferBinary.Decoder decoder = new FrameBufferBinary.Decoder();
         // CCGraphics.LOGGER.info("Decoding frame buffer");
-        byte[] bytes = new byte[buf.readableBytes()];
-        buf.getBytes(buf.readerIndex(), bytes);
         try {
-            FrameBuffer frame = decoder.decode(bytes);
+            FrameBuffer frame = decoder.decode(buf);
             int endOfFrame = (buf.readerIndex() + (decoder.usedBytes()));
             buf.readerIndex(endOfFrame);
             return frame;
@@ -664,6 +1376,19 @@ public abstract class FrameBuffer extends CustomLuaObject {
 
     public abstract int getColorIndexed(int index);
 
+    /**
+     * Copy a run of pixels by index into an array
+     * @param index     Index of the first pixel (<code>x + y * width</code>)
+     * @param dest      Array to copy into
+     * @param destIndex Position in <code>dest</code> to start at
+     * @param length    Number of pixels to copy
+     */
+    public void readPixels(int index, int[] dest, int destIndex, int length) {
+        for (int i = 0; i < length; i++) {
+            dest[destIndex + i] = getColorIndexed(index + i);
+        }
+    }
+
     public abstract void setColorIndexed(int index, int color);
 
     @Override
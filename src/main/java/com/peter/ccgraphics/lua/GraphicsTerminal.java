@@ -1,16 +1,27 @@
 package com.peter.ccgraphics.lua;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import com.peter.ccgraphics.CCGraphics;
-import com.peter.ccgraphics.font.CharacterGlyph;
 import com.peter.ccgraphics.font.FontLoader;
 import com.peter.ccgraphics.font.LuaFont;
 
-import dan200.computercraft.core.terminal.Palette;
 import dan200.computercraft.core.terminal.Terminal;
-import dan200.computercraft.core.terminal.TextBuffer;
 
 public class GraphicsTerminal extends Terminal {
 
+    /** Palette index of each blit color character. Unknown characters are black */
+    private static final byte[] PALETTE_INDEX = new byte[128];
+
+    static {
+        Arrays.fill(PALETTE_INDEX, (byte) 15);
+        String digits = "0123456789abcdef";
+        for (int i = 0; i < digits.length(); i++) {
+            PALETTE_INDEX[digits.charAt(i)] = (byte) (15 - i);
+        }
+    }
+
     protected int pixelWidth;
     protected int pixelHeight;
 
@@ -20,6 +31,8 @@ public class GraphicsTerminal extends Terminal {
     protected int charWidth;
     protected int charHeight;
 
+    private final TerminalRenderer renderer = new TerminalRenderer(false);
+
     public GraphicsTerminal(int pixelWidth, int pixelHeight) {
         super((pixelWidth - 4) / getFont(7).hSpacing, (pixelHeight - 4) / getFont(7).vSpacing, true);
         CCGraphics.LOGGER.info("Creating new graphics terminal: {}x{}chars {}x{}px", width, height, pixelWidth, pixelHeight);
@@ -41,124 +54,15 @@ public class GraphicsTerminal extends Terminal {
         return font;
     }
 
-    public FrameBuffer renderToFrame(boolean cursorVisible) {
-        FrameBuffer frame = new ArrayFrameBuffer(pixelWidth, pixelHeight);
-
-        LuaFont font = getFont();
-
-        int cursorColor = palette.getRenderColours(cursorColour);
-
-        for (int row = 0; row < height; row++) {
-            TextBuffer bColors = backgroundColour[row];
-            TextBuffer tColors = textColour[row];
-            TextBuffer line = text[row];
-
-            for (int col = 0; col < width; col++) {
-                int sX = 1 + (col * charWidth);
-                int sY = 1 + (row * charHeight);
-                frame.drawBoxFilled(sX, sY, charWidth, charHeight, convertColor(bColors.charAt(col)));
-
-                int tColor = convertColor(tColors.charAt(col));
-                char c = line.charAt(col);
-
-                if (c != ' ') {
-                    CharacterGlyph glyph = font.getChar(c).colored(tColor);
-                    frame.drawBufferMasked(sX, sY, glyph);
-                }
-                if (cursorVisible && cursorBlink && cursorX == col && cursorY == row) {
-                    for (int x = 0; x < font.charWidth; x++) {
-                        frame.setPixel(sX + x, sY + font.charHeight, cursorColor);
-                    }
-                }
-            }
-        }
-
-        return frame;
-    }
-
-    public static FrameBuffer renderToFrame(boolean cursorVisible, Terminal terminal) {
-        LuaFont font = FontLoader.getFont("mono", 7);
-        int rWidth = 2 + (font.hSpacing * terminal.getWidth());
-        int rHight = 2 + (font.vSpacing * terminal.getHeight());
-        return renderToFrame(cursorVisible, new ArrayFrameBuffer(rWidth, rHight), terminal);
+    /**
+     * Render the terminal, redrawing only the cells that changed since the last render
+     * @param cursorVisible If the cursor should be drawn (if it is blinking)
+     * @return Rendered frame. Reused by later renders, so copy it before keeping it
+     */
+    public synchronized FrameBuffer renderToFrame(boolean cursorVisible) {
+        return renderer.render(this, getFont(), pixelWidth, pixelHeight, cursorVisible);
     }
 
-    public static FrameBuffer renderToFrame(boolean cursorVisible, FrameBuffer outFrame, Terminal terminal) {
-        LuaFont font = FontLoader.getFont("mono", 7);
-
-        int charHeight = font.vSpacing;
-        int charWidth = font.hSpacing;
-
-        int width = terminal.getWidth();
-        int height = terminal.getHeight();
-
-        int rWidth = 2 + (charWidth * width);
-        int rHight = 2 + (charHeight * height);
-
-        if (outFrame.width < rWidth || outFrame.height < rHight) {
-            throw new IllegalArgumentException("Input frame must be at least ("+rWidth+", "+rHight+")");
-        }
-
-        outFrame.drawBox(0, 0, outFrame.width, outFrame.height, 0xff000000);
-
-
-        Palette palette = terminal.getPalette();
-
-        int cursorColor = convertColor(terminal.getTextColour(), palette);
-
-        for (int row = 0; row < height; row++) {
-            TextBuffer bColors = terminal.getBackgroundColourLine(row);
-            TextBuffer tColors = terminal.getTextColourLine(row);
-            TextBuffer line = terminal.getLine(row);
-
-            for (int col = 0; col < width; col++) {
-                int charX = 1 + (col * charWidth);
-                int charY = 1 + (row * charHeight);
-                int backgroundColour = convertColor(bColors.charAt(col), palette);
-                outFrame.drawBoxFilled(charX, charY, charWidth, charHeight, backgroundColour);
-                
-                int bottomY = charY + charHeight;
-                if (col == 0) {
-                    outFrame.drawBoxFilled(0, charY, 1, charHeight, backgroundColour);
-                    if (row == 0) {
-                        outFrame.setPixel(0, 0, backgroundColour);
-                    } else if (row == height - 1) {
-                        outFrame.drawBoxFilled(0, bottomY, 1, outFrame.height - bottomY, backgroundColour);
-                    }
-                } else if (col == width - 1) {
-                    int rightX = charX + charWidth;
-                    int rightW = outFrame.width - rightX;
-                    outFrame.drawBoxFilled(rightX, charY, rightW, charHeight, backgroundColour);
-                    if (row == 0) {
-                        outFrame.drawBoxFilled(rightX, 0, rightW, 1, backgroundColour);
-                    } else if (row == height - 1) {
-                        outFrame.drawBoxFilled(rightX, bottomY, rightW, outFrame.height - bottomY, backgroundColour);
-                    }
-                }
-                if (row == 0) {
-                    outFrame.drawBoxFilled(charX, 0, charWidth, 1, backgroundColour);
-                } else if (row == height - 1) {
-                    outFrame.drawBoxFilled(charX, bottomY, charWidth, outFrame.height - bottomY, backgroundColour);
-                }
-
-                int tColor = convertColor(tColors.charAt(col), palette);
-                char c = line.charAt(col);
-
-                if (c != ' ') {
-                    CharacterGlyph glyph = font.getChar(c).colored(tColor);
-                    outFrame.drawBufferMasked(charX, charY, glyph);
-                }
-                if (cursorVisible && terminal.getCursorBlink() && terminal.getCursorX() == col
-                        && terminal.getCursorY() == row) {
-                    for (int x = 0; x < font.charWidth; x++) {
-                        outFrame.setPixel(charX + x, charY + font.charHeight, cursorColor);
-                    }
-                }
-            }
-        }
-
-        return outFrame;
-    }
     
     public void setTextSize(int size) {
         if (size == this.size)
@@ -170,38 +74,55 @@ public class GraphicsTerminal extends Terminal {
         resize(pixelWidth, pixelHeight);
     }
 
-    private int convertColor(char color) {
-        return convertColor(color, palette);
-    }
-
-    protected static int convertColor(char color, Palette palette) {
-        int cInt = 0;
-        switch (color) {
-            case '0' -> cInt = 0x0;
-            case '1' -> cInt = 0x1;
-            case '2' -> cInt = 0x2;
-            case '3' -> cInt = 0x3;
-            case '4' -> cInt = 0x4;
-            case '5' -> cInt = 0x5;
-            case '6' -> cInt = 0x6;
-            case '7' -> cInt = 0x7;
-            case '8' -> cInt = 0x8;
-            case '9' -> cInt = 0x9;
-            case 'a' -> cInt = 0xa;
-            case 'b' -> cInt = 0xb;
-            case 'c' -> cInt = 0xc;
-            case 'd' -> cInt = 0xd;
-            case 'e' -> cInt = 0xe;
-            case 'f' -> cInt = 0xf;
-
-            default -> CCGraphics.LOGGER.error("Unknown color: {}", color);
-        }
+    /**
+     * Get the palette index of a blit color character
+     * @param color Color character, <code>0-9</code> or <code>a-f</code>
+     * @return Palette index. <code>15</code> (black) if the character was not a color
+     */
+    protected static int paletteIndex(char color) {
+        return color < PALETTE_INDEX.length ? PALETTE_INDEX[color] : 15;
+    }
+
+    @Override
+    public synchronized void write(String text) {
+        super.write(text);
+        renderer.markRowChanged(cursorY);
+    }
+
+    @Override
+    public synchronized void blit(ByteBuffer text, ByteBuffer textColour, ByteBuffer backgroundColour) {
+        super.blit(text, textColour, backgroundColour);
+        renderer.markRowChanged(cursorY);
+    }
 
-        return palette.getRenderColours(15 - cInt);
+    @Override
+    public synchronized void clearLine() {
+        super.clearLine();
+        renderer.markRowChanged(cursorY);
+    }
+
+    @Override
+    public synchronized void setLine(int y, String text, String textColour, String backgroundColour) {
+        super.setLine(y, text, textColour, backgroundColour);
+        renderer.markRowChanged(y);
     }
 
-    protected static int convertColor(int color, Palette palette) {
-        return palette.getRenderColours(15-color);
+    @Override
+    public synchronized void scroll(int yDiff) {
+        super.scroll(yDiff);
+        renderer.markChanged();
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        renderer.markChanged();
+    }
+
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        renderer.markChanged();
     }
 
     @Override
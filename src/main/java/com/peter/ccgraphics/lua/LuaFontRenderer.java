@@ -5,7 +5,6 @@ import java.util.Optional;
 import org.joml.Vector2i;
 
 import com.peter.ccgraphics.CCGraphics;
-import com.peter.ccgraphics.font.CharacterGlyph;
 import com.peter.ccgraphics.font.FontLoader;
 import com.peter.ccgraphics.font.LuaFont;
 
@@ -59,8 +58,7 @@ public class LuaFontRenderer {
                     // skip
                 }
                 default -> {
-                    CharacterGlyph glyph = font.getChar(c).colored(color);
-                    frame.drawBufferMasked(xStart, yStart, glyph);
+                    font.getGlyph(c).drawTo(frame, xStart, yStart, color);
                     if (font.isMono)
                         xStart += font.hSpacing;
                     else
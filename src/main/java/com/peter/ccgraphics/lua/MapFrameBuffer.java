@@ -102,11 +102,13 @@ public class MapFrameBuffer extends FrameBuffer {
     public void setPixel(int x, int y, int color) {
         assertInFrame(x, y);
         map.put(xyToIndex(x, y), color);
+        markPixelModified(x, y);
     }
 
     @Override
     public void setColorIndexed(int index, int color) {
         map.put((double)index, color);
+        markModified(index, 1);
     }
 
 
@@ -0,0 +1,253 @@
+package com.peter.ccgraphics.lua;
+
+import java.util.Arrays;
+
+/**
+ * Integer rasterization of shapes onto a {@link FrameBuffer}.<br/>
+ * <br/>
+ * Everything is clipped to the frame's clip rectangle, and filled shapes are drawn as horizontal spans so
+ * {@link ArrayFrameBuffer} can fill them a row at a time. Round shapes are traced once with the midpoint algorithm
+ * into the half width of each row, which is then used for both the outline and the fill so the two always match.
+ */
+final class Rasterizer {
+
+    private Rasterizer() {
+    }
+
+    /**
+     * Walk a line with Bresenham's algorithm, setting every pixel. Both ends must be inside the frame
+     */
+    static void line(FrameBuffer frame, int x1, int y1, int x2, int y2, int color) {
+        int dx = Math.abs(x2 - x1);
+        int dy = Math.abs(y2 - y1);
+        walk(frame, x1, y1, dx, -dy, x1 < x2 ? 1 : -1, y1 < y2 ? 1 : -1, dx - dy, Math.max(dx, dy), false, color);
+    }
+
+    /**
+     * Draw the part of a line inside the frame's clip rectangle. The ends may be anywhere, and the pixels drawn are
+     * the same ones {@link #line} would draw on a frame large enough to hold the whole line.<br/>
+     * <br/>
+     * Each step of the walk moves one pixel along the longer axis, so the walk starts where that axis enters the clip
+     * and stops where it leaves, keeping it no longer than the clip is wide.
+     */
+    static void clippedLine(FrameBuffer frame, int x1, int y1, int x2, int y2, int color) {
+        long dx = Math.abs((long) x2 - x1);
+        long dy = Math.abs((long) y2 - y1);
+        int sx = x1 < x2 ? 1 : -1;
+        int sy = y1 < y2 ? 1 : -1;
+        if (dx == 0 && dy == 0) {
+            if (frame.inClip(x1, y1))
+                frame.setPixel(x1, y1, color);
+            return;
+        }
+        boolean xMajor = dx >= dy;
+        long major = xMajor ? dx : dy;
+        long minor = xMajor ? dy : dx;
+        // Steps along the longer axis that are inside the clip
+        long start = xMajor ? x1 : y1;
+        int step = xMajor ? sx : sy;
+        long lo = xMajor ? frame.clipX0 : frame.clipY0;
+        long hi = (xMajor ? frame.clipX1 : frame.clipY1) - 1L;
+        long from = step > 0 ? lo - start : start - hi;
+        long to = step > 0 ? hi - start : start - lo;
+        from = Math.max(from, 0);
+        to = Math.min(to, major);
+        if (from > to)
+            return;
+
+        // After k steps the minor axis has moved round(k * minor / major), rounding halves up, as the walk would
+        long moved = (long) Math.floor((double) minor * from / major + 0.5);
+        // The estimate is off by at most one, and the remainder is small when it is right, so overflow cancels out
+        long rem = 2 * minor * from + major - 2 * major * moved;
+        while (rem < 0) {
+            moved--;
+            rem += 2 * major;
+        }
+        while (rem >= 2 * major) {
+            moved++;
+            rem -= 2 * major;
+        }
+        long nx = xMajor ? from : moved;
+        long ny = xMajor ? moved : from;
+        long err = dx - dy + dx * ny - dy * nx;
+        walk(frame, (int) (x1 + sx * nx), (int) (y1 + sy * ny), dx, -dy, sx, sy, err, to - from, true, color);
+    }
+
+    /**
+     * Walk a line with Bresenham's algorithm
+     * @param dx      Horizontal length of the whole line
+     * @param dy      Negated vertical length of the whole line
+     * @param err     Error term at the first pixel
+     * @param steps   Number of pixels to walk after the first
+     * @param clipped If pixels outside the clip rectangle should be skipped
+     */
+    private static void walk(FrameBuffer frame, int x, int y, long dx, long dy, int sx, int sy, long err, long steps,
+            boolean clipped, int color) {
+        for (long i = 0;; i++) {
+            if (!clipped || frame.inClip(x, y))
+                frame.setPixel(x, y, color);
+            if (i == steps)
+                return;
+            long e2 = 2 * err;
+            if (e2 >= dy) {
+                err += dy;
+                x += sx;
+            }
+            if (e2 <= dx) {
+                err += dx;
+                y += sy;
+            }
+        }
+    }
+
+    /**
+     * Trace a circle with the midpoint algorithm
+     * @return Half width of each row, from the center row up
+     */
+    static int[] circleRows(int r) {
+        int[] half = new int[r + 1];
+        int x = r;
+        int y = 0;
+        int err = 1 - r;
+        while (x >= y) {
+            half[y] = Math.max(half[y], x);
+            half[x] = Math.max(half[x], y);
+            y++;
+            if (err < 0) {
+                err += 2 * y + 1;
+            } else {
+                x--;
+                err += 2 * (y - x) + 1;
+            }
+        }
+        return half;
+    }
+
+    /**
+     * Trace an ellipse with the midpoint algorithm. Decision values are kept at 4x to stay in integers
+     * @return Half width of each row, from the center row up
+     */
+    static int[] ellipseRows(int rx, int ry) {
+        int[] half = new int[ry + 1];
+        if (rx == 0 || ry == 0) {
+            Arrays.fill(half, rx);
+            return half;
+        }
+        long a2 = (long) rx * rx;
+        long b2 = (long) ry * ry;
+        int x = 0;
+        int y = ry;
+        long dx = 0;
+        long dy = 2 * a2 * y;
+        // Region 1, where the curve is flatter than 45 degrees and x steps every time
+        long d = 4 * b2 - 4 * a2 * ry + a2;
+        while (dx < dy) {
+            half[y] = x;
+            x++;
+            dx += 2 * b2;
+            if (d < 0) {
+                d += 4 * (dx + b2);
+            } else {
+                y--;
+                dy -= 2 * a2;
+                d += 4 * (dx - dy + b2);
+            }
+        }
+        // Region 2, where y steps every time
+        d = b2 * (2L * x + 1) * (2L * x + 1) + 4 * a2 * ((long) y - 1) * ((long) y - 1) - 4 * a2 * b2;
+        while (y >= 0) {
+            half[y] = Math.max(half[y], x);
+            y--;
+            dy -= 2 * a2;
+            if (d > 0) {
+                d += 4 * (a2 - dy);
+            } else {
+                x++;
+                dx += 2 * b2;
+                d += 4 * (dx - dy + a2);
+            }
+        }
+        return half;
+    }
+
+    /**
+     * Draw a shape symmetric about its center from the half width of each row
+     * @param half   Half width of each row from the center row up, as from {@link #circleRows} or {@link #ellipseRows}
+     * @param filled If the shape should be filled, otherwise only the outline is drawn
+     */
+    static void drawRows(FrameBuffer frame, int cx, int cy, int[] half, int color, boolean filled) {
+        int top = half.length - 1;
+        int from = Math.max(-top, frame.clipY0 - cy);
+        int to = Math.min(top, frame.clipY1 - 1 - cy);
+        for (int dy = from; dy <= to; dy++) {
+            int row = Math.abs(dy);
+            int outer = half[row];
+            if (filled) {
+                frame.drawBoxFilledClipped(cx - outer, cy + dy, 2 * outer + 1, 1, color);
+                continue;
+            }
+            // The outline covers the gap out to the next row in, so it stays connected where it is nearly flat
+            int inner = row == top ? 0 : Math.min(outer, half[row + 1] + 1);
+            int w = outer - inner + 1;
+            frame.drawBoxFilledClipped(cx - outer, cy + dy, w, 1, color);
+            if (outer > 0)
+                frame.drawBoxFilledClipped(cx + inner, cy + dy, w, 1, color);
+        }
+    }
+
+    /**
+     * Fill a polygon by scanline, using the even-odd rule. The edges are not drawn
+     * @param points Vertices as <code>{x1, y1, x2, y2, ...}</code>
+     */
+    static void fillPolygon(FrameBuffer frame, int[] points, int color) {
+        int n = points.length / 2;
+        if (n < 3)
+            return;
+        int minY = Integer.MAX_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            minY = Math.min(minY, points[i * 2 + 1]);
+            maxY = Math.max(maxY, points[i * 2 + 1]);
+        }
+        minY = Math.max(minY, frame.clipY0);
+        maxY = Math.min(maxY, frame.clipY1 - 1);
+        double[] crossings = new double[n];
+        for (int y = minY; y <= maxY; y++) {
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                int j = (i + 1) % n;
+                int x0 = points[i * 2], y0 = points[i * 2 + 1];
+                int x1 = points[j * 2], y1 = points[j * 2 + 1];
+                if (y0 == y1)
+                    continue;
+                if (y0 > y1) {
+                    int t = x0; x0 = x1; x1 = t;
+                    t = y0; y0 = y1; y1 = t;
+                }
+                // Half open, so a vertex shared by two edges is only counted once
+                if (y < y0 || y >= y1)
+                    continue;
+                crossings[count++] = x0 + (double) (y - y0) * (x1 - x0) / (y1 - y0);
+            }
+            Arrays.sort(crossings, 0, count);
+            for (int k = 0; k + 1 < count; k += 2) {
+                long left = (long) Math.ceil(crossings[k]);
+                long right = (long) Math.floor(crossings[k + 1]);
+                if (left <= right)
+                    frame.drawBoxFilledClipped((int) left, y, (int) (right - left + 1), 1, color);
+            }
+        }
+    }
+
+    /**
+     * Draw the edges of a closed polygon
+     * @param points Vertices as <code>{x1, y1, x2, y2, ...}</code>
+     */
+    static void strokePolygon(FrameBuffer frame, int[] points, int color) {
+        int n = points.length / 2;
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            frame.drawLineClipped(points[i * 2], points[i * 2 + 1], points[j * 2], points[j * 2 + 1], color);
+        }
+    }
+}
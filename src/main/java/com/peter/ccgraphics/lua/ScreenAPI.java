@@ -7,8 +7,10 @@ import com.peter.ccgraphics.computer.GraphicsComputerComponent;
 import dan200.computercraft.api.lua.IArguments;
 import dan200.computercraft.api.lua.IComputerSystem;
 import dan200.computercraft.api.lua.ILuaAPI;
+import dan200.computercraft.api.lua.ILuaContext;
 import dan200.computercraft.api.lua.LuaException;
 import dan200.computercraft.api.lua.LuaFunction;
+import dan200.computercraft.api.lua.MethodResult;
 
 public class ScreenAPI implements ILuaAPI {
 
@@ -94,5 +96,22 @@ public class ScreenAPI implements ILuaAPI {
         return new ArrayFrameBuffer(getWidth(), getHeight());
     }
 
+    /**
+     * Get a swap chain the size of this screen, to draw frames into without allocating or copying them
+     * @return New swap chain
+     */
+    @LuaFunction
+    public final SwapChain getSwapChain() {
+        return new SwapChain(getWidth(), getHeight(), this::present);
+    }
+
+    private MethodResult present(ILuaContext context, SwapChain chain, ArrayFrameBuffer frame) throws LuaException {
+        if (frame.width != getWidth() || frame.height != getHeight()) {
+            chain.release(frame);
+            throw new LuaException("Frame buffer must be the size of the screen");
+        }
+        component.presentFrameBuffer(frame, chain);
+        return MethodResult.of();
+    }
 
 }
@@ -0,0 +1,112 @@
+package com.peter.ccgraphics.lua;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import dan200.computercraft.api.lua.ILuaContext;
+import dan200.computercraft.api.lua.LuaException;
+import dan200.computercraft.api.lua.LuaFunction;
+import dan200.computercraft.api.lua.MethodResult;
+
+/**
+ * Recycles frame buffers for a screen or monitor, so animation loops don't allocate or copy a frame every time.<br/>
+ * <br/>
+ * {@link #acquire()} returns a back buffer to draw into and {@link #present(ILuaContext)} hands it to the display
+ * without copying. Once presented the frame belongs to the display, which returns it with {@link #release} when it is
+ * done with it. Acquired frames keep whatever was last drawn into them.
+ */
+public class SwapChain {
+
+    /** Most released frames kept for reuse, any more are left to be collected */
+    private static final int MAX_FREE = 3;
+
+    /**
+     * Displays presented frames
+     */
+    @FunctionalInterface
+    public interface Presenter {
+        /**
+         * Display a frame. The presenter owns the frame from here on, and must {@link SwapChain#release} it once it is
+         * no longer needed, including when it is not displayed
+         * @param context Lua context of the call
+         * @param chain   Swap chain the frame came from
+         * @param frame   Frame to display
+         * @return Result to return to Lua
+         * @throws LuaException If the frame could not be displayed
+         */
+        MethodResult present(ILuaContext context, SwapChain chain, ArrayFrameBuffer frame) throws LuaException;
+    }
+
+    private final int width;
+    private final int height;
+    private final Presenter presenter;
+
+    private final Queue<ArrayFrameBuffer> free = new ConcurrentLinkedQueue<>();
+    private ArrayFrameBuffer back = null;
+
+    /**
+     * Create a new swap chain
+     * @param width     Width of the frames
+     * @param height    Height of the frames
+     * @param presenter Display to present frames to
+     */
+    public SwapChain(int width, int height, Presenter presenter) {
+        this.width = width;
+        this.height = height;
+        this.presenter = presenter;
+    }
+
+    /**
+     * Get the back buffer to draw the next frame into. Returns the same frame until it is presented
+     * @return Back buffer
+     */
+    @LuaFunction
+    public final synchronized FrameBuffer acquire() {
+        if (back == null) {
+            back = free.poll();
+            if (back == null)
+                back = new ArrayFrameBuffer(width, height);
+        }
+        return back;
+    }
+
+    /**
+     * Display the back buffer. The frame must not be used after this, call {@link #acquire()} for the next one.
+     * Displays check the frame's mod count, and fall back to sending it whole if it was drawn into anyway
+     * @param context Lua context
+     * @return Result of the display, see the method that created the chain
+     * @throws LuaException If no frame was acquired, or it could not be displayed
+     */
+    @LuaFunction
+    public final MethodResult present(ILuaContext context) throws LuaException {
+        ArrayFrameBuffer frame;
+        synchronized (this) {
+            if (back == null)
+                throw new LuaException("No frame buffer has been acquired");
+            frame = back;
+            back = null;
+        }
+        return presenter.present(context, this, frame);
+    }
+
+    /**
+     * Return a presented frame to be reused. Safe to call from any thread
+     * @param frame Frame that came from this chain. Must not be used by the caller afterwards
+     */
+    public void release(ArrayFrameBuffer frame) {
+        if (frame.getWidth() != width || frame.getHeight() != height)
+            return;
+        if (free.size() < MAX_FREE)
+            free.offer(frame);
+    }
+
+    @LuaFunction
+    public final int getWidth() {
+        return width;
+    }
+
+    @LuaFunction
+    public final int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,223 @@
+package com.peter.ccgraphics.lua;
+
+import java.util.Arrays;
+
+import com.peter.ccgraphics.font.LuaFont;
+
+import dan200.computercraft.core.terminal.Palette;
+import dan200.computercraft.core.terminal.Terminal;
+import dan200.computercraft.core.terminal.TextBuffer;
+
+/**
+ * Renders a terminal into a frame that is kept between renders.<br/>
+ * <br/>
+ * The character and colors last drawn in each cell are remembered, and only cells that differ are drawn again (along
+ * with the cells the cursor moved from and to). A cursor blink then only redraws a single cell.<br/>
+ * <br/>
+ * Only rows marked with {@link #markRowChanged} or {@link #markChanged} are checked for changes, so terminals that
+ * know which rows they wrote to do not need to compare the whole screen. A palette change checks every row.<br/>
+ * <br/>
+ * The frame returned by {@link #render} is reused, so it must be copied before it is kept. Sending a snapshot of its
+ * encoding is enough.
+ */
+public class TerminalRenderer {
+
+    private final boolean fillBorder;
+
+    private ArrayFrameBuffer frame;
+    private LuaFont font;
+    private int columns;
+    private int rows;
+
+    /** Character, text & background color last drawn in each cell */
+    private char[] cellChars;
+    private int[] cellText;
+    private int[] cellBackground;
+
+    /** Rows that may have changed since the last render */
+    private boolean[] changedRows = new boolean[0];
+    /** Palette colors the cells were last drawn with, by palette index */
+    private final int[] paletteColors = new int[16];
+
+    /** Cell the cursor was last drawn in, or <code>-1</code> */
+    private int cursorCell = -1;
+    private int cursorColor;
+
+    private boolean redrawAll = true;
+
+    /**
+     * Create a new renderer
+     * @param fillBorder If the area around the cells should be filled with the background of the nearest cell, as
+     *                   computer terminals are
+     */
+    public TerminalRenderer(boolean fillBorder) {
+        this.fillBorder = fillBorder;
+    }
+
+    /**
+     * Draw every cell on the next render
+     */
+    public void invalidate() {
+        redrawAll = true;
+    }
+
+    /**
+     * Check every row for changes on the next render
+     */
+    public void markChanged() {
+        Arrays.fill(changedRows, true);
+    }
+
+    /**
+     * Check a row for changes on the next render
+     * @param row Row of the terminal that changed. Ignored if outside the terminal
+     */
+    public void markRowChanged(int row) {
+        if (row >= 0 && row < changedRows.length)
+            changedRows[row] = true;
+    }
+
+    /**
+     * Render the terminal, drawing only what changed since the last render
+     * @param terminal      Terminal to render
+     * @param font          Font to render the terminal in
+     * @param width         Width of the frame
+     * @param height        Height of the frame
+     * @param cursorVisible If the cursor should be drawn (if it is blinking)
+     * @return Rendered frame. The same frame is returned until the size, font or terminal size changes
+     * @throws IllegalArgumentException If the terminal does not fit in the frame
+     */
+    public FrameBuffer render(Terminal terminal, LuaFont font, int width, int height, boolean cursorVisible) {
+        int columns = terminal.getWidth();
+        int rows = terminal.getHeight();
+        int charWidth = font.hSpacing;
+        int charHeight = font.vSpacing;
+        if (1 + columns * charWidth > width || 1 + rows * charHeight > height)
+            throw new IllegalArgumentException("Frame must be at least (" + (1 + columns * charWidth) + ", "
+                    + (1 + rows * charHeight) + ")");
+
+        if (frame == null || frame.getWidth() != width || frame.getHeight() != height) {
+            frame = new ArrayFrameBuffer(width, height);
+            redrawAll = true;
+        }
+        if (font != this.font || columns != this.columns || rows != this.rows) {
+            this.font = font;
+            this.columns = columns;
+            this.rows = rows;
+            cellChars = new char[columns * rows];
+            cellText = new int[columns * rows];
+            cellBackground = new int[columns * rows];
+            changedRows = new boolean[rows];
+            redrawAll = true;
+        }
+        if (redrawAll && fillBorder)
+            frame.drawBox(0, 0, width, height, 0xff000000);
+
+        Palette palette = terminal.getPalette();
+        for (int i = 0; i < paletteColors.length; i++) {
+            int color = palette.getRenderColours(i);
+            if (color != paletteColors[i]) {
+                paletteColors[i] = color;
+                markChanged();
+            }
+        }
+
+        int newCursorCell = -1;
+        int newCursorColor = paletteColors[15 - terminal.getTextColour()];
+        int cursorX = terminal.getCursorX();
+        int cursorY = terminal.getCursorY();
+        if (cursorVisible && terminal.getCursorBlink() && cursorX >= 0 && cursorX < columns && cursorY >= 0
+                && cursorY < rows)
+            newCursorCell = cursorX + cursorY * columns;
+        boolean cursorChanged = newCursorCell != cursorCell || newCursorColor != cursorColor;
+
+        int oldCursorRow = cursorChanged && cursorCell >= 0 ? cursorCell / columns : -1;
+        int newCursorRow = cursorChanged && newCursorCell >= 0 ? newCursorCell / columns : -1;
+        for (int row = 0; row < rows; row++) {
+            if (!redrawAll && !changedRows[row] && row != oldCursorRow && row != newCursorRow)
+                continue;
+            changedRows[row] = false;
+            TextBuffer bColors = terminal.getBackgroundColourLine(row);
+            TextBuffer tColors = terminal.getTextColourLine(row);
+            TextBuffer line = terminal.getLine(row);
+
+            for (int col = 0; col < columns; col++) {
+                int cell = col + row * columns;
+                char c = line.charAt(col);
+                int textColor = paletteColors[GraphicsTerminal.paletteIndex(tColors.charAt(col))];
+                int backgroundColor = paletteColors[GraphicsTerminal.paletteIndex(bColors.charAt(col))];
+                boolean cellChanged = redrawAll || c != cellChars[cell] || textColor != cellText[cell]
+                        || backgroundColor != cellBackground[cell];
+                if (!cellChanged && !(cursorChanged && (cell == cursorCell || cell == newCursorCell)))
+                    continue;
+
+                cellChars[cell] = c;
+                cellText[cell] = textColor;
+                cellBackground[cell] = backgroundColor;
+                drawCell(col, row, c, textColor, backgroundColor);
+                if (cell == newCursorCell) {
+                    int y = 1 + row * charHeight + font.charHeight;
+                    frame.drawBoxFilled(1 + col * charWidth, y, font.charWidth, 1, newCursorColor);
+                }
+            }
+        }
+
+        cursorCell = newCursorCell;
+        cursorColor = newCursorColor;
+        redrawAll = false;
+        return frame;
+    }
+
+    private void drawCell(int col, int row, char c, int textColor, int backgroundColor) {
+        int charWidth = font.hSpacing;
+        int charHeight = font.vSpacing;
+        int charX = 1 + (col * charWidth);
+        int charY = 1 + (row * charHeight);
+        frame.drawBoxFilled(charX, charY, charWidth, charHeight, backgroundColor);
+        if (fillBorder)
+            drawBorder(col, row, charX, charY, backgroundColor);
+        if (c != ' ')
+            font.getGlyph(c).drawTo(frame, charX, charY, textColor);
+    }
+
+    /**
+     * Fill the part of the border next to an edge cell
+     */
+    private void drawBorder(int col, int row, int charX, int charY, int backgroundColor) {
+        int charWidth = font.hSpacing;
+        int charHeight = font.vSpacing;
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int bottomY = charY + charHeight;
+        if (col == 0) {
+            frame.drawBoxFilled(0, charY, 1, charHeight, backgroundColor);
+            if (row == 0) {
+                frame.setPixel(0, 0, backgroundColor);
+            } else if (row == rows - 1) {
+                frame.drawBoxFilled(0, bottomY, 1, height - bottomY, backgroundColor);
+            }
+        } else if (col == columns - 1) {
+            int rightX = charX + charWidth;
+            int rightW = width - rightX;
+            frame.drawBoxFilled(rightX, charY, rightW, charHeight, backgroundColor);
+            if (row == 0) {
+                frame.drawBoxFilled(rightX, 0, rightW, 1, backgroundColor);
+            } else if (row == rows - 1) {
+                frame.drawBoxFilled(rightX, bottomY, rightW, height - bottomY, backgroundColor);
+            }
+        }
+        if (row == 0) {
+            frame.drawBoxFilled(charX, 0, charWidth, 1, backgroundColor);
+        } else if (row == rows - 1) {
+            frame.drawBoxFilled(charX, bottomY, charWidth, height - bottomY, backgroundColor);
+        }
+    }
+
+    /**
+     * Get the frame from the last render
+     * @return Last rendered frame, or <code>null</code> if nothing has been rendered
+     */
+    public FrameBuffer getFrame() {
+        return frame;
+    }
+}
@@ -1,17 +1,29 @@
 package com.peter.ccgraphics.monitor;
 
+import java.io.IOException;
 import java.util.function.Supplier;
 
+import com.peter.ccgraphics.CCGraphics;
+import com.peter.ccgraphics.data.FrameBufferBinary;
+import com.peter.ccgraphics.data.FrameBufferDelta;
 import com.peter.ccgraphics.lua.ArrayFrameBuffer;
 import com.peter.ccgraphics.lua.FrameBuffer;
 
 import dan200.computercraft.shared.peripheral.monitor.ClientMonitor;
+import io.netty.buffer.ByteBuf;
 
 public class ClientGraphicsMonitor {
 
     private final GraphicsMonitorBlockEntity origin;
     private boolean changed = false;
     private FrameBuffer cFrame = new ArrayFrameBuffer(1, 1);
+    /** Version of the current frame, or -1 if a full frame has not been received yet */
+    private int frameVersion = -1;
+
+    /** Time a full frame can be asked for again if the last request went unanswered, in nanoseconds */
+    private static final long KEYFRAME_RETRY_NANOS = 2_000_000_000L;
+    /** When a full frame was last requested, or <code>-1</code> if no request is outstanding */
+    private long keyframeRequested = -1;
 
     private ClientMonitor.RenderState renderState;
 
@@ -37,11 +49,61 @@ public class ClientGraphicsMonitor {
         return cFrame;
     }
 
-    public void updateFrame(FrameBuffer frame) {
+    public void updateFrame(FrameBuffer frame, int version) {
+        // Deltas are applied in place, so track them for partial texture uploads
+        frame.setDamageTracking(true);
         this.cFrame = frame;
+        this.frameVersion = version;
+        keyframeRequested = -1;
         changed = true;
     }
 
+    /**
+     * Set the current frame from its encoding, decoding into the current frame if it is the same size
+     * @param encoded Encoded frame. Its reader index is not moved
+     * @param version Version of the frame
+     */
+    public void updateFrame(ByteBuf encoded, int version) {
+        FrameBuffer frame;
+        try {
+            frame = new FrameBufferBinary.Decoder().decode(encoded, cFrame instanceof ArrayFrameBuffer array ? array : null);
+        } catch (IOException e) {
+            CCGraphics.LOGGER.error("Unable to decode frame buffer", e);
+            return;
+        }
+        updateFrame(frame, version);
+    }
+
+    /**
+     * Apply changes from the server to the current frame
+     * @param delta       Changes to apply
+     * @param baseVersion Version of the frame the changes were calculated from
+     * @param version     Version of the frame after the changes
+     * @return If the changes could be applied. If not, a full frame must be requested with
+     *         {@link #requestKeyframe()}. Changes are not applied while a full frame is requested
+     */
+    public boolean applyDelta(FrameBufferDelta delta, int baseVersion, int version) {
+        if (keyframeRequested != -1 || frameVersion == -1 || frameVersion != baseVersion)
+            return false;
+        if (!delta.applyTo(cFrame))
+            return false;
+        this.frameVersion = version;
+        changed = true;
+        return true;
+    }
+
+    /**
+     * Mark a full frame as requested. Only one request is kept outstanding, unless it goes unanswered for a while
+     * @return If a request should be sent to the server
+     */
+    public boolean requestKeyframe() {
+        long now = System.nanoTime();
+        if (keyframeRequested != -1 && now - keyframeRequested < KEYFRAME_RETRY_NANOS)
+            return false;
+        keyframeRequested = now;
+        return true;
+    }
+
     public ClientMonitor.RenderState getRenderState(Supplier<ClientMonitor.RenderState> supplier) {
         if (renderState == null) {
             renderState = supplier.get();
@@ -0,0 +1,56 @@
+package com.peter.ccgraphics.monitor;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Shared, bounded pool for preparing monitor frames (deltas & encoding) off the server thread.<br/>
+ * <br/>
+ * If the queue is full, work is refused rather than run on the submitting thread, so a backlog never stalls the server
+ * thread. Callers keep their frame and try again later.
+ */
+final class FrameEncoder {
+
+    private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int QUEUE_SIZE = 64;
+
+    private static final AtomicInteger threadId = new AtomicInteger();
+    private static final ThreadFactory THREAD_FACTORY = task -> {
+        Thread thread = new Thread(task, "CCGraphics-Frame-Encoder-" + threadId.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUE_SIZE), THREAD_FACTORY, new ThreadPoolExecutor.AbortPolicy());
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private FrameEncoder() {
+    }
+
+    /**
+     * Run a task on the encoding pool
+     * @param <T>  Result type
+     * @param task Task to run. Must not touch world or monitor state
+     * @return Future completed with the result of the task, or <code>null</code> if the queue is full
+     */
+    @Nullable
+    static <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, EXECUTOR);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+}
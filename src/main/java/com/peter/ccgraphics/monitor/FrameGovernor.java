@@ -0,0 +1,103 @@
+package com.peter.ccgraphics.monitor;
+
+/**
+ * Token bucket limiting how often a monitor sends frames, both in frames per second and bytes per second.<br/>
+ * <br/>
+ * The byte bucket holds up to one second of budget and may go into debt: a frame can be sent whenever the balance is
+ * not negative, and large frames then delay the following ones until the debt is repaid.
+ */
+public class FrameGovernor {
+
+    public static final int DEFAULT_FPS = 10;
+    /** Frames are flushed on server ticks, so there is no point going faster than the tick rate */
+    public static final int MAX_FPS = 20;
+    public static final int DEFAULT_BYTES_PER_SECOND = 256 * 1024;
+    public static final int MIN_BYTES_PER_SECOND = 1024;
+
+    private int fps = DEFAULT_FPS;
+    private int bytesPerSecond = DEFAULT_BYTES_PER_SECOND;
+
+    private double frameTokens = 1;
+    private double byteTokens = DEFAULT_BYTES_PER_SECOND;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * Set the budget
+     * @param fps            Maximum frames per second. Between 1 and {@value #MAX_FPS}
+     * @param bytesPerSecond Maximum bytes per second. At least {@value #MIN_BYTES_PER_SECOND}
+     * @throws IllegalArgumentException If either value was out of range
+     */
+    public void configure(int fps, int bytesPerSecond) {
+        if (fps < 1 || fps > MAX_FPS)
+            throw new IllegalArgumentException("Frame rate must be between 1 and " + MAX_FPS + ", was " + fps);
+        if (bytesPerSecond < MIN_BYTES_PER_SECOND)
+            throw new IllegalArgumentException(
+                    "Byte rate must be at least " + MIN_BYTES_PER_SECOND + ", was " + bytesPerSecond);
+        refill();
+        this.fps = fps;
+        this.bytesPerSecond = bytesPerSecond;
+        byteTokens = Math.min(byteTokens, bytesPerSecond);
+    }
+
+    public int getFps() {
+        return fps;
+    }
+
+    public int getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double seconds = (now - lastRefill) / 1e9;
+        lastRefill = now;
+        frameTokens = Math.min(1, frameTokens + seconds * fps);
+        byteTokens = Math.min(bytesPerSecond, byteTokens + seconds * bytesPerSecond);
+    }
+
+    /**
+     * Check if a frame can be sent now
+     * @return If there is budget for another frame
+     */
+    public boolean isReady() {
+        refill();
+        return frameTokens >= 1 && byteTokens >= 0;
+    }
+
+    /**
+     * Take a sent frame out of the budget
+     * @param bytes Size of the frame that was sent
+     */
+    public void consume(int bytes) {
+        consumeFrame();
+        consumeBytes(bytes);
+    }
+
+    /**
+     * Take a frame out of the frame budget, for frames whose size is not known yet
+     */
+    public void consumeFrame() {
+        refill();
+        frameTokens -= 1;
+    }
+
+    /**
+     * Take bytes out of the byte budget
+     * @param bytes Number of bytes sent
+     */
+    public void consumeBytes(int bytes) {
+        refill();
+        byteTokens -= bytes;
+    }
+
+    /**
+     * Get how long until another frame can be sent
+     * @return Time to wait in milliseconds, <code>0</code> if a frame can be sent now
+     */
+    public long getWaitMillis() {
+        refill();
+        double frameWait = frameTokens >= 1 ? 0 : (1 - frameTokens) / fps;
+        double byteWait = byteTokens >= 0 ? 0 : -byteTokens / bytesPerSecond;
+        return (long) Math.ceil(Math.max(frameWait, byteWait) * 1000);
+    }
+}
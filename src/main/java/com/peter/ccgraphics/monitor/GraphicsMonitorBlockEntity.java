@@ -11,7 +11,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.peter.ccgraphics.CCGraphics;
+import com.peter.ccgraphics.lua.ArrayFrameBuffer;
 import com.peter.ccgraphics.lua.FrameBuffer;
+import com.peter.ccgraphics.lua.SwapChain;
 
 import dan200.computercraft.api.peripheral.IComputerAccess;
 import dan200.computercraft.api.peripheral.IPeripheral;
@@ -34,6 +36,7 @@ import net.minecraft.network.packet.s2c.play.BlockEntityUpdateS2CPacket;
 import net.minecraft.registry.Registries;
 import net.minecraft.registry.Registry;
 import net.minecraft.registry.RegistryWrapper;
+import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.storage.ReadView;
 import net.minecraft.storage.WriteView;
 import net.minecraft.util.Identifier;
@@ -679,16 +682,66 @@ public class GraphicsMonitorBlockEntity extends BlockEntity {
         return okay;
     }
 
-    public boolean setFrameBuffer(FrameBuffer buffer) {
+    /**
+     * Queue a frame to be displayed on the monitor
+     * @param buffer Frame to display
+     * @return Time until another frame can be sent without waiting, in milliseconds, or <code>-1</code> if there is
+     *         no monitor
+     * @throws IllegalArgumentException If the frame was not the size of the monitor
+     */
+    public long setFrameBuffer(FrameBuffer buffer) {
+        if (serverMonitor == null)
+            return -1;
+        return serverMonitor.setFrame(buffer);
+    }
+
+    /**
+     * Queue a frame from a swap chain for the monitor, without copying it
+     * @param buffer Frame to display. Must not be modified afterwards
+     * @param chain  Chain to return the frame to once the monitor is done with it
+     * @return Milliseconds until another frame can be sent without waiting, or <code>-1</code> if there was no
+     *         monitor to set
+     * @throws IllegalArgumentException If the frame was not the size of the monitor
+     */
+    public long presentFrameBuffer(ArrayFrameBuffer buffer, SwapChain chain) {
+        if (serverMonitor == null)
+            return -1;
+        return serverMonitor.presentFrame(buffer, chain);
+    }
+
+    /**
+     * Set the frame budget of the monitor
+     * @param fps            Maximum frames per second
+     * @param bytesPerSecond Maximum bytes per second
+     * @return If there was a monitor to configure
+     * @throws IllegalArgumentException If either value was out of range
+     */
+    public boolean setFrameBudget(int fps, int bytesPerSecond) {
         if (serverMonitor == null)
             return false;
-        if (serverMonitor.setFrame(buffer)) {
-            world.updateListeners(pos, getCachedState(), getCachedState(), Block.NOTIFY_LISTENERS);
-            markDirty();
+        serverMonitor.setFrameBudget(fps, bytesPerSecond);
+        return true;
+    }
 
-            return true;
-        }
-        return false;
+    @Nullable
+    public FrameGovernor getFrameGovernor() {
+        return serverMonitor == null ? null : serverMonitor.getGovernor();
+    }
+
+    void onFrameSent() {
+        world.updateListeners(pos, getCachedState(), getCachedState(), Block.NOTIFY_LISTENERS);
+        markDirty();
+    }
+
+    /**
+     * Resend the full frame to a player that could not apply a frame delta. Sent on a following tick, within the
+     * monitor's frame budget
+     * @param player Player to send the frame to
+     */
+    public void requestKeyframe(ServerPlayerEntity player) {
+        ServerGraphicsMonitor monitor = getServerMonitor();
+        if (monitor != null)
+            monitor.requestKeyframe(player);
     }
 
     public int getPixelWidth() {
@@ -712,6 +765,8 @@ public class GraphicsMonitorBlockEntity extends BlockEntity {
     protected void onTick(World world, BlockPos pos, BlockState state) {
         if (peripheral != null)
             peripheral.onUpdate();
+        if (this.xIndex == 0 && this.yIndex == 0 && this.serverMonitor != null)
+            this.serverMonitor.tick();
     }
 
 }
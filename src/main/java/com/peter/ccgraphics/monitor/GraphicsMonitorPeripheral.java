@@ -1,6 +1,7 @@
 package com.peter.ccgraphics.monitor;
 
 import java.util.Map;
+import java.util.Optional;
 
 import org.jetbrains.annotations.Nullable;
 
@@ -8,9 +9,12 @@ import com.peter.ccgraphics.CCGraphics;
 import com.peter.ccgraphics.lua.ArrayFrameBuffer;
 import com.peter.ccgraphics.lua.FrameBuffer;
 import com.peter.ccgraphics.lua.GraphicsTerminal;
+import com.peter.ccgraphics.lua.SwapChain;
 
+import dan200.computercraft.api.lua.ILuaContext;
 import dan200.computercraft.api.lua.LuaException;
 import dan200.computercraft.api.lua.LuaFunction;
+import dan200.computercraft.api.lua.MethodResult;
 import dan200.computercraft.api.peripheral.IComputerAccess;
 import dan200.computercraft.api.peripheral.IPeripheral;
 import dan200.computercraft.core.apis.TermMethods;
@@ -24,6 +28,9 @@ public class GraphicsMonitorPeripheral extends TermMethods implements IPeriphera
     private boolean isTerm = false;
     private long lastFrame = 0;
     private boolean flashCursor = true;
+    /** Terminal frame last sent to the monitor and its mod count, to skip renders that changed nothing */
+    private FrameBuffer lastTermFrame;
+    private int lastTermMods;
 
     public GraphicsMonitorPeripheral(GraphicsMonitorBlockEntity monitorEntity) {
         this.monitor = monitorEntity;
@@ -52,21 +59,67 @@ public class GraphicsMonitorPeripheral extends TermMethods implements IPeriphera
     }
 
     @LuaFunction(mainThread = true)
-    public final boolean setFrameBuffer(Object buffer) throws LuaException {
+    public final MethodResult setFrameBuffer(Object buffer) throws LuaException {
         if (isTerm)
-            return false;
+            return MethodResult.of(false);
         try {
             FrameBuffer buffer2;
             if (buffer instanceof FrameBuffer frameBuffer)
                 buffer2 = frameBuffer;
             else
                 buffer2 = FrameBuffer.fromTable((Map<?,?>)buffer);
-            return monitor.setFrameBuffer(buffer2);
+            long wait = monitor.setFrameBuffer(buffer2);
+            if (wait < 0)
+                return MethodResult.of(false);
+            return MethodResult.of(wait / 1000.0);
         } catch (IllegalArgumentException e) {
             throw new LuaException(e.getMessage());
         }
     }
 
+    @LuaFunction
+    public final SwapChain getSwapChain() {
+        return new SwapChain(getWidth(), getHeight(), this::present);
+    }
+
+    private MethodResult present(ILuaContext context, SwapChain chain, ArrayFrameBuffer frame) throws LuaException {
+        return context.executeMainThreadTask(() -> {
+            if (isTerm) {
+                chain.release(frame);
+                return new Object[] { false };
+            }
+            long wait;
+            try {
+                wait = monitor.presentFrameBuffer(frame, chain);
+            } catch (IllegalArgumentException e) {
+                chain.release(frame);
+                throw new LuaException(e.getMessage());
+            }
+            if (wait < 0) {
+                chain.release(frame);
+                return new Object[] { false };
+            }
+            return new Object[] { wait / 1000.0 };
+        });
+    }
+
+    @LuaFunction(mainThread = true)
+    public final boolean setFrameBudget(int fps, Optional<Integer> bytesPerSecond) throws LuaException {
+        try {
+            return monitor.setFrameBudget(fps, bytesPerSecond.orElse(FrameGovernor.DEFAULT_BYTES_PER_SECOND));
+        } catch (IllegalArgumentException e) {
+            throw new LuaException(e.getMessage());
+        }
+    }
+
+    @LuaFunction(mainThread = true)
+    public final MethodResult getFrameBudget() {
+        FrameGovernor governor = monitor.getFrameGovernor();
+        if (governor == null)
+            return MethodResult.of(FrameGovernor.DEFAULT_FPS, FrameGovernor.DEFAULT_BYTES_PER_SECOND);
+        return MethodResult.of(governor.getFps(), governor.getBytesPerSecond());
+    }
+
     @LuaFunction
     public final int getWidth() {
         return monitor.getPixelWidth();
@@ -99,6 +152,8 @@ public class GraphicsMonitorPeripheral extends TermMethods implements IPeriphera
     @LuaFunction
     public final void makeTerm() {
         isTerm = true;
+        // Whatever the monitor shows now was not drawn by the terminal
+        lastTermFrame = null;
     }
 
     @LuaFunction
@@ -114,7 +169,12 @@ public class GraphicsMonitorPeripheral extends TermMethods implements IPeriphera
         if (fromLast > 500) {
             try {
                 terminal.checkSize(monitor.getPixelWidth(), monitor.getPixelHeight());
-                monitor.setFrameBuffer(terminal.renderToFrame(flashCursor));
+                FrameBuffer frame = terminal.renderToFrame(flashCursor);
+                if (frame != lastTermFrame || frame.getModCount() != lastTermMods) {
+                    monitor.setFrameBuffer(frame);
+                    lastTermFrame = frame;
+                    lastTermMods = frame.getModCount();
+                }
                 // CCGraphics.LOGGER.info("Updating terminal frame");
                 flashCursor = !flashCursor;
                 lastFrame = cTime;
@@ -1,13 +1,38 @@
 package com.peter.ccgraphics.monitor;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.peter.ccgraphics.CCGraphics;
+import com.peter.ccgraphics.data.FrameBufferDelta;
 import com.peter.ccgraphics.lua.ArrayFrameBuffer;
+import com.peter.ccgraphics.lua.DirectFrameBuffer;
 import com.peter.ccgraphics.lua.FrameBuffer;
+import com.peter.ccgraphics.lua.SwapChain;
 import com.peter.ccgraphics.networking.FrambufferPacket;
+import com.peter.ccgraphics.networking.FrameDeltaPacket;
 
+import dan200.computercraft.shared.config.Config;
 import dan200.computercraft.shared.util.TickScheduler;
+import net.fabricmc.fabric.api.networking.v1.PlayerLookup;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Vec3d;
 
 public class ServerGraphicsMonitor {
 
@@ -17,19 +42,92 @@ public class ServerGraphicsMonitor {
     private final AtomicBoolean changed = new AtomicBoolean(false);
 
     public static final int DEFAULT_RESOLUTION = 64;
-    private static final long MIN_FRAME_TIME = 1000 / 5;
+    /** Frames with at least this many pixels are kept off-heap */
+    private static final int DIRECT_FRAME_PIXELS = 512 * 512;
 
     private FrameBuffer cFrame;
-    private long lastFrameTime = 0;
+    private int frameVersion = 0;
+    /** Last version handed out, frames being encoded are ahead of <code>frameVersion</code> */
+    private int lastVersion = 0;
+
+    private final FrameGovernor governor = new FrameGovernor();
+    /** Newest frame waiting for budget, sent on a later tick. Older pending frames are replaced */
+    private FrameBuffer pendingFrame = null;
+
+    /** Ticks between checks for players that have come into range of the monitor */
+    private static final int SYNC_INTERVAL = 20;
+    private int ticksUntilSync = 0;
+
+    /** Last frame sent to each player. Frames should not be modified after being set, so no copy is needed */
+    private final Map<UUID, SentFrame> sentFrames = new HashMap<>();
+
+    /** Players that asked for a full frame, answered together on the next tick the budget allows */
+    private final Set<UUID> keyframeRequests = new HashSet<>();
+
+    /**
+     * The frame a player was last sent
+     * @param modCount Mod count of the frame when the payload was made. A presented frame that was drawn into after
+     *                 being presented no longer matches what the player has, so can't be used as a delta base
+     */
+    private record SentFrame(int version, FrameBuffer frame, int modCount) {
+        boolean isIntact() {
+            return frame.getModCount() == modCount;
+        }
+    }
+
+    /**
+     * A frame ready to send, with payloads for each base version that was known when encoding started
+     * @param modCount Mod count of the frame when preparing started
+     */
+    private record PreparedFrame(FrameBuffer frame, int version, int modCount, Map<Integer, CustomPayload> payloads) {
+    }
+
+    /**
+     * Frames presented from swap chains, returned to their chain once nothing refers to them. Keyframe packets hold
+     * the frame's encoding rather than its pixels, and a client on the same machine is sent a copy, so sent frames can
+     * be returned too
+     */
+    private final Map<ArrayFrameBuffer, SwapChain> presented = new IdentityHashMap<>();
+
+    /** Off-heap frames made by this monitor, closed once nothing refers to them */
+    private final Set<DirectFrameBuffer> directFrames = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** Frame being prepared on the encoding pool. Only one at a time, so frames are sent in order */
+    private CompletableFuture<PreparedFrame> encoding = null;
 
     public ServerGraphicsMonitor(GraphicsMonitorBlockEntity origin) {
         this.origin = origin;
-        cFrame = new ArrayFrameBuffer(getPixelWidth(), getPixelHeight());
+        cFrame = newFrame(getPixelWidth(), getPixelHeight());
+    }
+
+    /**
+     * Create a blank frame, off-heap if it is large. Off-heap frames are closed by {@link #releaseFrames()}
+     */
+    private FrameBuffer newFrame(int width, int height) {
+        if (width * height >= DIRECT_FRAME_PIXELS)
+            return trackDirect(new DirectFrameBuffer(width, height));
+        return new ArrayFrameBuffer(width, height);
+    }
+
+    /**
+     * Copy a frame, off-heap if it is large. Off-heap frames are closed by {@link #releaseFrames()}
+     */
+    private FrameBuffer copyFrame(FrameBuffer frame) {
+        if (frame.getLength() >= DIRECT_FRAME_PIXELS)
+            return trackDirect(DirectFrameBuffer.copyOf(frame));
+        return frame.copy();
+    }
+
+    private DirectFrameBuffer trackDirect(DirectFrameBuffer frame) {
+        directFrames.add(frame);
+        return frame;
     }
 
     synchronized void rebuild() {
         if (getPixelHeight() != cFrame.getHeight() || getPixelWidth() != cFrame.getWidth()) {
-            cFrame = new ArrayFrameBuffer(getPixelWidth(), getPixelHeight());
+            cFrame = newFrame(getPixelWidth(), getPixelHeight());
+            pendingFrame = null;
+            frameVersion = ++lastVersion;
             markChanged();
         }
     }
@@ -42,7 +140,141 @@ public class ServerGraphicsMonitor {
         if (!this.changed.getAndSet(true)) {
             TickScheduler.schedule(origin.tickToken);
         }
-        FrambufferPacket.sendUpdate((ServerWorld)origin.getWorld(), origin, cFrame);
+        governor.consume(sendUpdate(new HashMap<>(), cFrame.getModCount()));
+    }
+
+    /**
+     * Send the current frame to players in range, as a delta from the last frame they were sent where possible
+     * @param payloads  Payloads already prepared for the current frame, by base version. Missing payloads are made
+     *                  here and added
+     * @param frameMods Mod count of the current frame before the payloads were made
+     * @return Size of the largest update sent to a single player, in bytes
+     */
+    private int sendUpdate(Map<Integer, CustomPayload> payloads, int frameMods) {
+        BlockPos pos = origin.getPos();
+        Set<UUID> recipients = new HashSet<>();
+        int cost = 0;
+        for (ServerPlayerEntity player : getRecipients()) {
+            UUID id = player.getUuid();
+            recipients.add(id);
+            SentFrame sent = sentFrames.get(id);
+            // A frame drawn into after it was sent no longer matches the player's copy, so resend it whole. Players
+            // waiting for a full frame drop deltas, so send them one now
+            if (sent != null && (!sent.isIntact() || keyframeRequests.contains(id)))
+                sent = null;
+            if (sent != null && sent.version() == frameVersion)
+                continue;
+            CustomPayload payload;
+            if (sent != null)
+                // Players usually share a base frame, so only compute each delta once
+                payload = payloads.computeIfAbsent(sent.version(),
+                        v -> makePayload(sent.frame(), v, cFrame, frameVersion, pos));
+            else
+                payload = getKeyframe();
+            ServerPlayNetworking.send(player, payload);
+            keyframeRequests.remove(id);
+            sentFrames.put(id, new SentFrame(frameVersion, cFrame, frameMods));
+            cost = Math.max(cost, getPayloadSize(payload));
+        }
+        sentFrames.keySet().retainAll(recipients);
+        keyframeRequests.retainAll(recipients);
+        return cost;
+    }
+
+    private int getPayloadSize(CustomPayload payload) {
+        if (payload instanceof FrameDeltaPacket deltaPacket)
+            return deltaPacket.delta().getEncodedSize();
+        // Encoded once when the keyframe was made, then reused by the packet codec for every player
+        return ((FrambufferPacket) payload).encoded().readableBytes();
+    }
+
+    /**
+     * Get the players that should receive frames: those tracking the monitor's chunk and within monitor render
+     * distance of it
+     */
+    private List<ServerPlayerEntity> getRecipients() {
+        BlockPos pos = origin.getPos();
+        Vec3d center = Vec3d.ofCenter(pos);
+        // Measured from the origin block, so allow for the size of the wall
+        double range = Config.monitorDistance + Math.max(origin.getWidth(), origin.getHeight());
+        double rangeSq = range * range;
+        List<ServerPlayerEntity> players = new ArrayList<>();
+        for (ServerPlayerEntity player : PlayerLookup.tracking((ServerWorld) origin.getWorld(), pos)) {
+            if (player.getPos().squaredDistanceTo(center) <= rangeSq)
+                players.add(player);
+        }
+        return players;
+    }
+
+    private FrambufferPacket getKeyframe() {
+        return FrambufferPacket.snapshot(cFrame, origin.getPos(), frameVersion);
+    }
+
+    /**
+     * Make the payload that updates a client from <code>base</code> to <code>frame</code>. Only uses its arguments,
+     * so is safe to call off the server thread
+     * @return A delta, or the full frame if that would be smaller
+     */
+    private static CustomPayload makePayload(FrameBuffer base, int baseVersion, FrameBuffer frame, int version,
+            BlockPos pos) {
+        if (base.getWidth() == frame.getWidth() && base.getHeight() == frame.getHeight()) {
+            FrameBufferDelta delta = FrameBufferDelta.between(base, frame);
+            // Noisy changes can cost more as spans than the whole frame. The encoding is cached, so a keyframe made
+            // afterwards reuses it
+            if (delta.getEncodedSize() < frame.getEncoded().readableBytes())
+                return new FrameDeltaPacket(delta, pos, baseVersion, version);
+        }
+        // Encoded now, rather than on the server or network thread
+        return FrambufferPacket.snapshot(frame, pos, version);
+    }
+
+    private static PreparedFrame prepare(FrameBuffer frame, int version, Map<Integer, FrameBuffer> bases,
+            BlockPos pos) {
+        int modCount = frame.getModCount();
+        // Players seeing the frame for the first time or resyncing are sent it whole, so always encode it here rather
+        // than on the server thread
+        frame.getEncoded();
+        Map<Integer, CustomPayload> payloads = new HashMap<>();
+        for (Map.Entry<Integer, FrameBuffer> base : bases.entrySet()) {
+            payloads.put(base.getKey(), makePayload(base.getValue(), base.getKey(), frame, version, pos));
+        }
+        return new PreparedFrame(frame, version, modCount, payloads);
+    }
+
+    /**
+     * Queue a full frame for a player, discarding what we think they were last sent.<br/>
+     * Used when the client could not apply a delta. Requests are answered on a following tick, once per player, and
+     * only if the player is still receiving frames from this monitor
+     * @param player Player to send to
+     */
+    synchronized void requestKeyframe(ServerPlayerEntity player) {
+        keyframeRequests.add(player.getUuid());
+    }
+
+    /**
+     * Send the current frame whole to players that asked for it, if the budget allows. Requests from players that
+     * are not receiving frames from this monitor are dropped
+     * @return If a frame was sent
+     */
+    private boolean sendRequestedKeyframes() {
+        if (keyframeRequests.isEmpty() || !governor.isReady())
+            return false;
+        int mods = cFrame.getModCount();
+        FrambufferPacket keyframe = null;
+        for (ServerPlayerEntity player : getRecipients()) {
+            UUID id = player.getUuid();
+            if (!keyframeRequests.contains(id))
+                continue;
+            if (keyframe == null)
+                keyframe = getKeyframe();
+            ServerPlayNetworking.send(player, keyframe);
+            sentFrames.put(id, new SentFrame(frameVersion, cFrame, mods));
+        }
+        keyframeRequests.clear();
+        if (keyframe == null)
+            return false;
+        governor.consume(getPayloadSize(keyframe));
+        return true;
     }
 
     int getScale() {
@@ -68,22 +300,163 @@ public class ServerGraphicsMonitor {
         return this.changed.getAndSet(false);
     }
 
-    public boolean setFrame(FrameBuffer frame) {
-        long cTime = System.currentTimeMillis();
-        if (cTime - lastFrameTime < MIN_FRAME_TIME) {
-            return false;
+    /**
+     * Queue a frame to be displayed. Encoding starts now if the budget allows and is sent on a following tick,
+     * otherwise the frame waits, replacing any frame that was already waiting
+     * @param frame Frame to display. Copied, so it can be reused
+     * @return Time until another frame can be sent without waiting, in milliseconds
+     * @throws IllegalArgumentException If the frame was not the size of the monitor
+     */
+    public synchronized long setFrame(FrameBuffer frame) {
+        if (cFrame.getWidth() != frame.getWidth() || cFrame.getHeight() != frame.getHeight()) {
+            throw new IllegalArgumentException("Frame buffer must be same size as monitor");
         }
+        pendingFrame = copyFrame(frame);
+        startEncoding();
+        return governor.getWaitMillis();
+    }
+
+    /**
+     * Queue a frame from a swap chain to be displayed, without copying it. Otherwise the same as {@link #setFrame}
+     * @param frame Frame to display. Must not be modified afterwards. If it is, players are sent it whole again
+     *              rather than deltas against pixels they never received
+     * @param chain Chain to return the frame to once it is no longer needed
+     * @return Time until another frame can be sent without waiting, in milliseconds
+     * @throws IllegalArgumentException If the frame was not the size of the monitor
+     */
+    public synchronized long presentFrame(ArrayFrameBuffer frame, SwapChain chain) {
         if (cFrame.getWidth() != frame.getWidth() || cFrame.getHeight() != frame.getHeight()) {
             throw new IllegalArgumentException("Frame buffer must be same size as monitor");
         }
-        cFrame = frame.copy();
-        lastFrameTime = cTime;
-        
-        markChanged();
+        presented.put(frame, chain);
+        pendingFrame = frame;
+        startEncoding();
+        return governor.getWaitMillis();
+    }
+
+    /**
+     * Called every tick on the origin monitor. Sends any encoded frame and requested full frames, starts encoding any
+     * pending frame, and periodically sends the current frame to players that have come into range
+     */
+    synchronized void tick() {
+        boolean sent = sendEncoded();
+        sent |= sendRequestedKeyframes();
+        releaseFrames();
+        if (startEncoding() || sent)
+            return;
+        if (--ticksUntilSync > 0)
+            return;
+        ticksUntilSync = SYNC_INTERVAL;
+        // Players already up to date are skipped, and players that left range are forgotten
+        sendUpdate(new HashMap<>(), cFrame.getModCount());
+    }
+
+    /**
+     * Return presented frames that are no longer the current, pending, or a player's last frame to their swap chain,
+     * and close off-heap frames that are no longer any of those. Keyframe packets hold the frame's encoding rather
+     * than its pixels, so frames still waiting to be written can be released
+     */
+    private void releaseFrames() {
+        // Frames being encoded against can't be told apart from ones that are free
+        if ((presented.isEmpty() && directFrames.isEmpty()) || encoding != null)
+            return;
+        Set<FrameBuffer> inUse = Collections.newSetFromMap(new IdentityHashMap<>());
+        inUse.add(cFrame);
+        if (pendingFrame != null)
+            inUse.add(pendingFrame);
+        for (SentFrame sent : sentFrames.values()) {
+            inUse.add(sent.frame());
+        }
+        Iterator<Map.Entry<ArrayFrameBuffer, SwapChain>> it = presented.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ArrayFrameBuffer, SwapChain> entry = it.next();
+            if (!inUse.contains(entry.getKey())) {
+                entry.getValue().release(entry.getKey());
+                it.remove();
+            }
+        }
+        Iterator<DirectFrameBuffer> direct = directFrames.iterator();
+        while (direct.hasNext()) {
+            DirectFrameBuffer frame = direct.next();
+            if (!inUse.contains(frame)) {
+                frame.close();
+                direct.remove();
+            }
+        }
+    }
 
+    /**
+     * Start preparing the pending frame on the encoding pool, if there is one, nothing else is being encoded, the
+     * budget allows, and the pool has room
+     * @return If encoding was started
+     */
+    private boolean startEncoding() {
+        if (pendingFrame == null || encoding != null || !governor.isReady())
+            return false;
+        FrameBuffer frame = pendingFrame;
+        int version = lastVersion + 1;
+        Map<Integer, FrameBuffer> bases = new HashMap<>();
+        for (SentFrame sent : sentFrames.values()) {
+            if (sent.isIntact())
+                bases.putIfAbsent(sent.version(), sent.frame());
+        }
+        BlockPos pos = origin.getPos();
+        CompletableFuture<PreparedFrame> future = FrameEncoder.submit(() -> prepare(frame, version, bases, pos));
+        // The pool is busy with other monitors, so the frame stays pending for a later tick
+        if (future == null)
+            return false;
+        encoding = future;
+        pendingFrame = null;
+        lastVersion = version;
+        // The size isn't known until encoded, so bytes are charged when sent
+        governor.consumeFrame();
+        return true;
+    }
+
+    /**
+     * Send the frame being encoded, if it is ready
+     * @return If a frame was sent
+     */
+    private boolean sendEncoded() {
+        if (encoding == null || !encoding.isDone())
+            return false;
+        CompletableFuture<PreparedFrame> done = encoding;
+        encoding = null;
+        PreparedFrame prepared;
+        try {
+            prepared = done.join();
+        } catch (CompletionException | CancellationException e) {
+            CCGraphics.LOGGER.error("Error preparing graphics monitor frame", e);
+            return false;
+        }
+        // The monitor was resized while encoding
+        if (prepared.frame().getWidth() != cFrame.getWidth() || prepared.frame().getHeight() != cFrame.getHeight())
+            return false;
+        cFrame = prepared.frame();
+        frameVersion = prepared.version();
+        if (!this.changed.getAndSet(true)) {
+            TickScheduler.schedule(origin.tickToken);
+        }
+        governor.consumeBytes(sendUpdate(prepared.payloads(), prepared.modCount()));
+        origin.onFrameSent();
         return true;
     }
 
+    /**
+     * Set the frame budget of this monitor
+     * @param fps            Maximum frames per second
+     * @param bytesPerSecond Maximum bytes per second
+     * @throws IllegalArgumentException If either value was out of range
+     * @see FrameGovernor#configure(int, int)
+     */
+    public synchronized void setFrameBudget(int fps, int bytesPerSecond) {
+        governor.configure(fps, bytesPerSecond);
+    }
+
+    public FrameGovernor getGovernor() {
+        return governor;
+    }
+
     public int getPixelWidth() {
         return scale * origin.getWidth() * DEFAULT_RESOLUTION;
     }
@@ -92,6 +465,10 @@ public class ServerGraphicsMonitor {
         return scale * origin.getHeight() * DEFAULT_RESOLUTION;
     }
     
+    /**
+     * Get the frame being displayed. Large frames are off-heap and are closed once replaced, so it must not be kept
+     * @return Current frame
+     */
     public FrameBuffer getFrame() {
         return cFrame;
     }
@@ -0,0 +1,33 @@
+package com.peter.ccgraphics.networking;
+
+import com.peter.ccgraphics.CCGraphics;
+import com.peter.ccgraphics.data.FrameBufferDelta;
+
+import io.netty.buffer.ByteBuf;
+import net.fabricmc.fabric.api.networking.v1.PayloadTypeRegistry;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.codec.PacketCodecs;
+import net.minecraft.network.packet.CustomPayload;
+
+/**
+ * Changes to the screen of a graphics computer since the last frame or delta sent to the menu
+ */
+public record ComputerFrameDeltaPacket(FrameBufferDelta delta, int syncId) implements CustomPayload {
+
+    public static final Id<ComputerFrameDeltaPacket> ID = new Id<ComputerFrameDeltaPacket>(
+            CCGraphics.id("frame_buffer_computer_delta"));
+    public static final PacketCodec<ByteBuf, ComputerFrameDeltaPacket> CODEC = PacketCodec.tuple(
+            PacketCodec.of(FrameBufferDelta::encode, FrameBufferDelta::decode), ComputerFrameDeltaPacket::delta,
+            PacketCodecs.INTEGER, ComputerFrameDeltaPacket::syncId,
+            ComputerFrameDeltaPacket::new
+    );
+
+    @Override
+    public Id<ComputerFrameDeltaPacket> getId() {
+        return ID;
+    }
+
+    public static void register() {
+        PayloadTypeRegistry.playS2C().register(ID, CODEC);
+    }
+}
@@ -1,22 +1,62 @@
 package com.peter.ccgraphics.networking;
 
+import org.jetbrains.annotations.Nullable;
+
 import com.peter.ccgraphics.CCGraphics;
 import com.peter.ccgraphics.lua.FrameBuffer;
 import io.netty.buffer.ByteBuf;
 import net.fabricmc.fabric.api.networking.v1.PayloadTypeRegistry;
 import net.minecraft.network.codec.PacketCodec;
-import net.minecraft.network.codec.PacketCodecs;
 import net.minecraft.network.packet.CustomPayload;
 
-public record ComputerFramePacket(FrameBuffer frame, int syncId) implements CustomPayload {
+/**
+ * Frame for the screen of a graphics computer.<br/>
+ * <br/>
+ * A packet made with {@link #snapshot} holds the frame's encoding from when it was made, so the frame may be reused
+ * before the packet is written. Decoded packets only have the frame.<br/>
+ * <br/>
+ * The host of an integrated server is given the packet object without it being written, so should decode the
+ * encoding rather than use a frame that still belongs to the server.
+ */
+public record ComputerFramePacket(FrameBuffer frame, @Nullable ByteBuf encoded, int syncId) implements CustomPayload {
 
     public static final Id<ComputerFramePacket> ID = new Id<ComputerFramePacket>(CCGraphics.id("frame_buffer_computer"));
-    public static final PacketCodec<ByteBuf, ComputerFramePacket> CODEC = PacketCodec.tuple(
-            FrameBuffer.PACKET_CODEC, ComputerFramePacket::frame,
-            PacketCodecs.INTEGER, ComputerFramePacket::syncId,
-            ComputerFramePacket::new
+    public static final PacketCodec<ByteBuf, ComputerFramePacket> CODEC = PacketCodec.of(
+            ComputerFramePacket::write,
+            ComputerFramePacket::read
     );
 
+    /**
+     * Create a packet that encodes the frame when it is written
+     * @param frame  Frame to send. Must not be modified until the packet is written
+     * @param syncId Sync ID of the menu the frame is for
+     */
+    public ComputerFramePacket(FrameBuffer frame, int syncId) {
+        this(frame, null, syncId);
+    }
+
+    /**
+     * Create a packet with the frame's encoding as it is now
+     * @param frame  Frame to send. May be reused once this returns
+     * @param syncId Sync ID of the menu the frame is for
+     * @return Frame packet
+     */
+    public static ComputerFramePacket snapshot(FrameBuffer frame, int syncId) {
+        return new ComputerFramePacket(frame, frame.getEncoded(), syncId);
+    }
+
+    private void write(ByteBuf buf) {
+        if (encoded != null)
+            buf.writeBytes(encoded, encoded.readerIndex(), encoded.readableBytes());
+        else
+            FrameBuffer.PACKET_CODEC.encode(buf, frame);
+        buf.writeInt(syncId);
+    }
+
+    private static ComputerFramePacket read(ByteBuf buf) {
+        FrameBuffer frame = FrameBuffer.PACKET_CODEC.decode(buf);
+        return new ComputerFramePacket(frame, buf.readInt());
+    }
 
     @Override
     public Id<ComputerFramePacket> getId() {
@@ -1,27 +1,69 @@
 package com.peter.ccgraphics.networking;
 
+import org.jetbrains.annotations.Nullable;
+
 import com.peter.ccgraphics.CCGraphics;
 import com.peter.ccgraphics.lua.FrameBuffer;
-import com.peter.ccgraphics.monitor.GraphicsMonitorBlockEntity;
 
 import io.netty.buffer.ByteBuf;
 import net.fabricmc.fabric.api.networking.v1.PayloadTypeRegistry;
-import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
 import net.minecraft.network.codec.PacketCodec;
 import net.minecraft.network.packet.CustomPayload;
-import net.minecraft.server.network.ServerPlayerEntity;
-import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.math.BlockPos;
 
-public record FrambufferPacket(FrameBuffer frame, BlockPos pos) implements CustomPayload {
+/**
+ * Full frame (keyframe) for a graphics monitor.<br/>
+ * <br/>
+ * A packet made with {@link #snapshot} holds the frame's encoding from when it was made, so the frame may be reused
+ * before the packet is written. Decoded packets only have the frame.<br/>
+ * <br/>
+ * The host of an integrated server is given the packet object without it being written, so should decode the
+ * encoding rather than use a frame that still belongs to the server.
+ */
+public record FrambufferPacket(FrameBuffer frame, @Nullable ByteBuf encoded, BlockPos pos, int version)
+        implements CustomPayload {
 
     public static final Id<FrambufferPacket> ID = new Id<FrambufferPacket>(CCGraphics.id("frame_buffer"));
-    public static final PacketCodec<ByteBuf, FrambufferPacket> CODEC = PacketCodec.tuple(
-            FrameBuffer.PACKET_CODEC, FrambufferPacket::frame,
-            BlockPos.PACKET_CODEC, FrambufferPacket::pos,
-            FrambufferPacket::new
+    public static final PacketCodec<ByteBuf, FrambufferPacket> CODEC = PacketCodec.of(
+            FrambufferPacket::write,
+            FrambufferPacket::read
     );
 
+    /**
+     * Create a packet that encodes the frame when it is written
+     * @param frame   Frame to send. Must not be modified until the packet is written
+     * @param pos     Position of the monitor
+     * @param version Version of the frame
+     */
+    public FrambufferPacket(FrameBuffer frame, BlockPos pos, int version) {
+        this(frame, null, pos, version);
+    }
+
+    /**
+     * Create a packet with the frame's encoding as it is now
+     * @param frame   Frame to send. May be reused once this returns
+     * @param pos     Position of the monitor
+     * @param version Version of the frame
+     * @return Keyframe packet
+     */
+    public static FrambufferPacket snapshot(FrameBuffer frame, BlockPos pos, int version) {
+        return new FrambufferPacket(frame, frame.getEncoded(), pos, version);
+    }
+
+    private void write(ByteBuf buf) {
+        if (encoded != null)
+            buf.writeBytes(encoded, encoded.readerIndex(), encoded.readableBytes());
+        else
+            FrameBuffer.PACKET_CODEC.encode(buf, frame);
+        BlockPos.PACKET_CODEC.encode(buf, pos);
+        buf.writeInt(version);
+    }
+
+    private static FrambufferPacket read(ByteBuf buf) {
+        FrameBuffer frame = FrameBuffer.PACKET_CODEC.decode(buf);
+        BlockPos pos = BlockPos.PACKET_CODEC.decode(buf);
+        return new FrambufferPacket(frame, pos, buf.readInt());
+    }
 
     @Override
     public Id<? extends CustomPayload> getId() {
@@ -32,10 +74,4 @@ public record FrambufferPacket(FrameBuffer frame, BlockPos pos) implements Custo
         PayloadTypeRegistry.playS2C().register(ID, CODEC);
     }
 
-    public static void sendUpdate(ServerWorld world, GraphicsMonitorBlockEntity entity, FrameBuffer frame) {
-        for (ServerPlayerEntity player : world.getPlayers()) {
-            ServerPlayNetworking.send(player, new FrambufferPacket(frame, entity.getPos()));
-        }
-    }
-
 }
@@ -0,0 +1,35 @@
+package com.peter.ccgraphics.networking;
+
+import com.peter.ccgraphics.CCGraphics;
+import com.peter.ccgraphics.data.FrameBufferDelta;
+
+import io.netty.buffer.ByteBuf;
+import net.fabricmc.fabric.api.networking.v1.PayloadTypeRegistry;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.codec.PacketCodecs;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * Changes to a graphics monitor frame since the frame with version <code>baseVersion</code>
+ */
+public record FrameDeltaPacket(FrameBufferDelta delta, BlockPos pos, int baseVersion, int version) implements CustomPayload {
+
+    public static final Id<FrameDeltaPacket> ID = new Id<FrameDeltaPacket>(CCGraphics.id("frame_buffer_delta"));
+    public static final PacketCodec<ByteBuf, FrameDeltaPacket> CODEC = PacketCodec.tuple(
+            PacketCodec.of(FrameBufferDelta::encode, FrameBufferDelta::decode), FrameDeltaPacket::delta,
+            BlockPos.PACKET_CODEC, FrameDeltaPacket::pos,
+            PacketCodecs.INTEGER, FrameDeltaPacket::baseVersion,
+            PacketCodecs.INTEGER, FrameDeltaPacket::version,
+            FrameDeltaPacket::new
+    );
+
+    @Override
+    public Id<FrameDeltaPacket> getId() {
+        return ID;
+    }
+
+    public static void register() {
+        PayloadTypeRegistry.playS2C().register(ID, CODEC);
+    }
+}
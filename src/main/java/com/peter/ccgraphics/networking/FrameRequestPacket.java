@@ -0,0 +1,43 @@
+package com.peter.ccgraphics.networking;
+
+import com.peter.ccgraphics.CCGraphics;
+import com.peter.ccgraphics.monitor.GraphicsMonitorBlockEntity;
+
+import io.netty.buffer.ByteBuf;
+import net.fabricmc.fabric.api.networking.v1.PayloadTypeRegistry;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * Sent by the client when it can't apply a {@link FrameDeltaPacket}, asking for a full frame.<br/>
+ * <br/>
+ * Clients keep one request outstanding per monitor. The server only answers players that are being sent frames from
+ * the monitor, and answers on its next tick within the monitor's frame budget
+ */
+public record FrameRequestPacket(BlockPos pos) implements CustomPayload {
+
+    public static final Id<FrameRequestPacket> ID = new Id<FrameRequestPacket>(CCGraphics.id("frame_buffer_request"));
+    public static final PacketCodec<ByteBuf, FrameRequestPacket> CODEC = PacketCodec.tuple(
+            BlockPos.PACKET_CODEC, FrameRequestPacket::pos,
+            FrameRequestPacket::new
+    );
+
+    @Override
+    public Id<FrameRequestPacket> getId() {
+        return ID;
+    }
+
+    public static void register() {
+        PayloadTypeRegistry.playC2S().register(ID, CODEC);
+        ServerPlayNetworking.registerGlobalReceiver(ID, (payload, context) -> {
+            context.server().execute(() -> {
+                if (!context.player().getWorld().isPosLoaded(payload.pos()))
+                    return;
+                if (context.player().getWorld().getBlockEntity(payload.pos()) instanceof GraphicsMonitorBlockEntity monitor)
+                    monitor.requestKeyframe(context.player());
+            });
+        });
+    }
+}
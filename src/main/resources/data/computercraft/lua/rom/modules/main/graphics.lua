@@ -128,4 +128,19 @@ function GraphicsAPI.loadFBBFile(filename)
     return native.loadFBBString(image)
 end
 
+--- Opcodes for `FrameBuffer.drawCommands`
+GraphicsAPI.commands = {
+    PIXEL = 1, -- x, y, color
+    LINE = 2, -- x1, y1, x2, y2, color
+    BOX = 3, -- x, y, w, h, color
+    BOX_FILLED = 4, -- x, y, w, h, color
+    CIRCLE = 5, -- cx, cy, r, color
+    CIRCLE_FILLED = 6, -- cx, cy, r, color
+    ELLIPSE = 7, -- cx, cy, rx, ry, color
+    ELLIPSE_FILLED = 8, -- cx, cy, rx, ry, color
+    TRIANGLE = 9, -- x1, y1, x2, y2, x3, y3, color
+    TRIANGLE_FILLED = 10, -- x1, y1, x2, y2, x3, y3, color
+    POINTS = 11, -- color, count, x1, y1, ... xN, yN
+}
+
 return GraphicsAPI
\ No newline at end of file